@@ -0,0 +1,621 @@
+import java.util.*;
+
+/**
+ * B+树，关键字只存放在叶子中，内部节点只存放分隔符，叶子之间通过next指针串成有序链表。
+ * 范围查询先从根节点定位起始叶子，然后沿着叶子链表顺序读取，复杂度为O(log n + k)。
+ * 关键字需要实现Comparable接口或者传递Comparator。
+ * @author fgp
+ *
+ * @param <E> 关键字类型。
+ */
+public class BPlusTree<E> implements Iterable<E> {
+	private Node<E> root;
+	private Node<E> head; // 最左边的叶子
+	private final Comparator<E> comparator;
+	private final int MAX_KEYS;
+	private final int MIN_KEYS;
+	private final int order;
+	private int height;
+	private int totalSize;
+	private int modCount;
+	/**
+	 * 创建一个m阶B+树。
+	 * @param order B+树的阶
+	 * @param comparator 关键字比较器。
+	 */
+	public BPlusTree(int order, Comparator<E> comparator) {
+		if (order < 3) {
+			throw new IllegalArgumentException("The order of B-tree should be larger than 2");
+		}
+		this.order = order;
+		this.comparator = comparator;
+		this.MAX_KEYS = order - 1;
+		this.MIN_KEYS = (order + 1) / 2 - 1;
+		this.height = 0;
+		this.totalSize = 0;
+	}
+	/**
+	 * 创建一个m阶B+树。
+	 * @param order B+树的阶。
+	 */
+	public BPlusTree(int order) {
+		this(order, null);
+	}
+	@SuppressWarnings("unchecked")
+	private int cmp(Object e1, Object e2) {
+		if (comparator != null)
+			return comparator.compare((E)e1, (E)e2);
+		Comparable<E> c1 = (Comparable<E>)e1;
+		return c1.compareTo((E)e2);
+	}
+	/**
+	 * 查找关键字所在的叶子，内部节点中等于分隔符的关键字在右子树中。
+	 * @param key 需要查找的关键字
+	 * @return 关键字所在（或者应该插入）的叶子
+	 */
+	private Node<E> findLeaf(E key) {
+		Node<E> p = root;
+		while (!p.isLeaf) {
+			p = p.children[p.childIndex(key)];
+		}
+		return p;
+	}
+	/**
+	 * 检测关键字是否在B+树中
+	 * @param key 需要检测的关键字。
+	 * @return 存在返回true，否则返回false
+	 */
+	public boolean contains(E key) {
+		if (key == null || root == null)
+			return false;
+		return findLeaf(key).binarySearch(key) >= 0;
+	}
+	/**
+	 * 插入关键字key到B+树中。
+	 * @param key 待插入的关键字。
+	 * @return 若已经存在关键字，则插入失败，返回false， 否则返回true。
+	 */
+	public boolean add(E key) {
+		if (key == null) {
+			return false;
+		}
+		if (root == null) {
+			root = head = new Node<E>(true);
+			this.height = 1;
+			this.totalSize = 0;
+		}
+		Node<E> leaf = findLeaf(key);
+		int index = leaf.binarySearch(key);
+		if (index >= 0)
+			return false;
+		leaf.insertAt(-index - 1, key, null);
+		if (leaf.size > MAX_KEYS) {
+			splitLeaf(leaf);
+		}
+		++totalSize;
+		++modCount;
+		return true;
+	}
+	/**
+	 * 分裂叶子，右半部分移到新叶子中，新叶子的第一个关键字拷贝到父亲节点作为分隔符。
+	 * @param p 需要分裂的叶子。
+	 */
+	private void splitLeaf(Node<E> p) {
+		int mid = p.size >>> 1;
+		Node<E> right = new Node<E>(true);
+		right.size = p.size - mid;
+		System.arraycopy(p.keys, mid, right.keys, 0, right.size);
+		Arrays.fill(p.keys, mid, p.size, null);
+		p.size = mid;
+		right.next = p.next;
+		p.next = right;
+		insertIntoParent(p, right.keys[0], right);
+	}
+	/**
+	 * 分裂内部节点，中间的分隔符上移到父亲节点。
+	 * @param p 需要分裂的内部节点。
+	 */
+	private void splitInternal(Node<E> p) {
+		int mid = p.size >>> 1;
+		Object separator = p.keys[mid];
+		Node<E> right = new Node<E>(false);
+		right.size = p.size - mid - 1;
+		System.arraycopy(p.keys, mid + 1, right.keys, 0, right.size);
+		System.arraycopy(p.children, mid + 1, right.children, 0, right.size + 1);
+		for (int i = 0; i <= right.size; ++i) {
+			right.children[i].parent = right;
+		}
+		Arrays.fill(p.keys, mid, p.size, null);
+		Arrays.fill(p.children, mid + 1, p.size + 1, null);
+		p.size = mid;
+		insertIntoParent(p, separator, right);
+	}
+	/**
+	 * 分裂后把分隔符和新的右节点插入到父亲节点中，父亲节点不存在则树长高一层。
+	 * @param left 分裂后的左节点（原来的节点）
+	 * @param separator 分隔符
+	 * @param right 分裂后新建的右节点
+	 */
+	private void insertIntoParent(Node<E> left, Object separator, Node<E> right) {
+		Node<E> parent = left.parent;
+		if (parent == null) {
+			parent = new Node<E>(false);
+			parent.children[0] = left;
+			left.parent = parent;
+			root = parent;
+			height++;
+		}
+		int index = rankInChildren(left);
+		parent.insertAt(index, separator, right);
+		right.parent = parent;
+		if (parent.size > MAX_KEYS) {
+			splitInternal(parent);
+		}
+	}
+	/**
+	 * 把指定容器的所有元素加入到树中。
+	 * @param c 指定的容器，容器的元素将加入到此树中。
+	 * @return 若调用此方法引起了B+树的改变，返回true，否则返回false
+	 */
+	public boolean addAll(Collection<? extends E> c) {
+		boolean isModify = false;
+		for (E e : c) {
+			isModify |= add(e);
+		}
+		return isModify;
+	}
+	/**
+	 * 从B+树中删除指定的元素
+	 * @param e 需要删除的元素
+	 * @return 如果该元素存在，删除之，返回true，否则返回false
+	 */
+	public boolean remove(E e) {
+		if (e == null || root == null) {
+			return false;
+		}
+		Node<E> leaf = findLeaf(e);
+		int index = leaf.binarySearch(e);
+		if (index < 0)
+			return false;
+		leaf.deleteAt(index);
+		// 内部节点中的分隔符不需要同时删除，它仍然能够正确划分左右子树。
+		if (leaf != root && leaf.size < MIN_KEYS) {
+			rebalanceLeaf(leaf);
+		}
+		--totalSize;
+		++modCount;
+		return true;
+	}
+	/**
+	 * 把指定容器的所有元素从此树中删除。
+	 * @param c 指定的容器。
+	 * @return 若调用次方法引起了此树的改变，返回true，否则返回false。
+	 */
+	public boolean removeAll(Collection<? extends E> c) {
+		boolean isModify = false;
+		for (E e : c)
+			isModify |= remove(e);
+		return isModify;
+	}
+	/**
+	 * 判断p是第几个儿子
+	 * @param p 需要判断的节点
+	 * @return 如果p没有父亲，即他是根节点，返回-1
+	 */
+	private int rankInChildren(Node<E> p) {
+		Node<E> parent = p.parent;
+		if (parent == null) {
+			return -1;
+		}
+		int i;
+		for (i = 0; i <= parent.size; ++i) {
+			if (parent.children[i] == p)
+				break;
+		}
+		return i;
+	}
+	/**
+	 * 叶子贫困后调整：先尝试从兄弟借一个关键字，否则与兄弟合并。
+	 * @param p 贫困叶子
+	 */
+	private void rebalanceLeaf(Node<E> p) {
+		Node<E> parent = p.parent;
+		int myRank = rankInChildren(p);
+		Node<E> right = myRank < parent.size ? parent.children[myRank + 1] : null;
+		Node<E> left = myRank > 0 ? parent.children[myRank - 1] : null;
+		if (right != null && right.size > MIN_KEYS) { // 右兄弟富裕，借第一个关键字
+			p.keys[p.size++] = right.keys[0];
+			right.deleteAt(0);
+			parent.keys[myRank] = right.keys[0];
+			return;
+		}
+		if (left != null && left.size > MIN_KEYS) { // 左兄弟富裕，借最后一个关键字
+			p.insertAt(0, left.keys[left.size - 1], null);
+			left.deleteAt(left.size - 1);
+			parent.keys[myRank - 1] = p.keys[0];
+			return;
+		}
+		if (right != null) {
+			mergeLeaves(p, right, myRank);
+		} else {
+			mergeLeaves(left, p, myRank - 1);
+		}
+	}
+	/**
+	 * 把右叶子合并到左叶子中，并从父亲节点删除它们之间的分隔符。
+	 */
+	private void mergeLeaves(Node<E> left, Node<E> right, int leftRank) {
+		System.arraycopy(right.keys, 0, left.keys, left.size, right.size);
+		left.size += right.size;
+		left.next = right.next;
+		right.next = null;
+		right.parent = null;
+		removeFromParent(left.parent, leftRank);
+	}
+	/**
+	 * 删除父亲节点中第index个分隔符以及它右边的孩子，必要时递归调整。
+	 */
+	private void removeFromParent(Node<E> parent, int index) {
+		System.arraycopy(parent.keys, index + 1, parent.keys, index, parent.size - index - 1);
+		System.arraycopy(parent.children, index + 2, parent.children, index + 1, parent.size - index - 1);
+		parent.keys[parent.size - 1] = null;
+		parent.children[parent.size] = null;
+		parent.size--;
+		if (parent == root) {
+			if (parent.size == 0) { // 根节点只剩一个孩子，高度减一
+				root = parent.children[0];
+				root.parent = null;
+				height--;
+			}
+		} else if (parent.size < MIN_KEYS) {
+			rebalanceInternal(parent);
+		}
+	}
+	/**
+	 * 内部节点贫困后调整，与B树相同，通过父亲节点的分隔符进行旋转或者合并。
+	 * @param p 贫困的内部节点
+	 */
+	private void rebalanceInternal(Node<E> p) {
+		Node<E> parent = p.parent;
+		int myRank = rankInChildren(p);
+		Node<E> right = myRank < parent.size ? parent.children[myRank + 1] : null;
+		Node<E> left = myRank > 0 ? parent.children[myRank - 1] : null;
+		if (right != null && right.size > MIN_KEYS) { // 左旋转
+			p.keys[p.size] = parent.keys[myRank];
+			p.children[p.size + 1] = right.children[0];
+			right.children[0].parent = p;
+			p.size++;
+			parent.keys[myRank] = right.keys[0];
+			System.arraycopy(right.keys, 1, right.keys, 0, right.size - 1);
+			System.arraycopy(right.children, 1, right.children, 0, right.size);
+			right.keys[right.size - 1] = null;
+			right.children[right.size] = null;
+			right.size--;
+			return;
+		}
+		if (left != null && left.size > MIN_KEYS) { // 右旋转
+			Node<E> child = left.children[left.size];
+			p.insertAt(0, parent.keys[myRank - 1], null);
+			System.arraycopy(p.children, 0, p.children, 1, p.size);
+			p.children[0] = child;
+			child.parent = p;
+			parent.keys[myRank - 1] = left.keys[left.size - 1];
+			left.keys[left.size - 1] = null;
+			left.children[left.size] = null;
+			left.size--;
+			return;
+		}
+		if (right == null) {
+			right = p;
+			p = left;
+			myRank--;
+		}
+		// 合并：分隔符下移，右节点的关键字和孩子拷贝到左节点
+		p.keys[p.size] = parent.keys[myRank];
+		System.arraycopy(right.keys, 0, p.keys, p.size + 1, right.size);
+		for (int i = 0; i <= right.size; ++i) {
+			right.children[i].parent = p;
+			p.children[p.size + 1 + i] = right.children[i];
+		}
+		p.size += right.size + 1;
+		right.parent = null;
+		removeFromParent(parent, myRank);
+	}
+	/**
+	 * 返回最小的关键字
+	 * @return 最小的关键字，树为空时抛出NoSuchElementException
+	 */
+	@SuppressWarnings("unchecked")
+	public E first() {
+		if (totalSize == 0)
+			throw new NoSuchElementException();
+		return (E)head.keys[0];
+	}
+	/**
+	 * 返回最大的关键字
+	 * @return 最大的关键字，树为空时抛出NoSuchElementException
+	 */
+	@SuppressWarnings("unchecked")
+	public E last() {
+		if (totalSize == 0)
+			throw new NoSuchElementException();
+		Node<E> p = root;
+		while (!p.isLeaf) {
+			p = p.children[p.size];
+		}
+		return (E)p.keys[p.size - 1];
+	}
+	/**
+	 * 返回关键字在[from, to)之间的视图，视图不拷贝数据，迭代时才沿着叶子链表读取。
+	 * @param from 起始关键字（包含）
+	 * @param to 结束关键字（不包含）
+	 * @return 范围视图
+	 */
+	public Iterable<E> range(E from, E to) {
+		Objects.requireNonNull(from);
+		Objects.requireNonNull(to);
+		if (cmp(from, to) > 0)
+			throw new IllegalArgumentException("from > to");
+		return new Range(from, to);
+	}
+	/**
+	 * 返回所有小于to的关键字的视图。
+	 * @param to 结束关键字（不包含）
+	 * @return 范围视图
+	 */
+	public Iterable<E> headSet(E to) {
+		return new Range(null, Objects.requireNonNull(to));
+	}
+	/**
+	 * 返回所有大于等于from的关键字的视图。
+	 * @param from 起始关键字（包含）
+	 * @return 范围视图
+	 */
+	public Iterable<E> tailSet(E from) {
+		return new Range(Objects.requireNonNull(from), null);
+	}
+	private class Range implements Iterable<E> {
+		final E from;
+		final E to;
+		Range(E from, E to) {
+			this.from = from;
+			this.to = to;
+		}
+		@Override
+		public Iterator<E> iterator() {
+			return new Cursor(from, to);
+		}
+	}
+	/**
+	 * 把B+树转化成Object数组。
+	 * @return 转化后的数组，数组包含所有关键字。
+	 */
+	public Object[] toArrays() {
+		Object[] values = new Object[totalSize];
+		int i = 0;
+		for (Node<E> p = head; p != null && totalSize > 0; p = p.next) {
+			System.arraycopy(p.keys, 0, values, i, p.size);
+			i += p.size;
+		}
+		return values;
+	}
+	public void print() {
+		print(root);
+	}
+	private void print(Node<E> p) {
+		if (p == null)
+			return;
+		System.out.println(p);
+		if (!p.isLeaf) {
+			for (int i = 0; i <= p.size; ++i) {
+				print(p.children[i]);
+			}
+		}
+	}
+	/**
+	 * 返回B+树的阶
+	 * @return B+树的阶
+	 */
+	public int getOrder() {
+		return this.order;
+	}
+	/**
+	 * 返回B+树的高度，高度从1开始。
+	 * @return B+树的高度。
+	 */
+	public int getHeight() {
+		if (isEmpty()) {
+			return 0;
+		}
+		return this.height;
+	}
+	/**
+	 * 返回关键字的数量
+	 * @return 关键字数量。
+	 */
+	public int size() {
+		return this.totalSize;
+	}
+	/**
+	 * 判断该B+树是否为空
+	 * @return 如果B+树为空，返回true，否则返回false
+	 */
+	public boolean isEmpty() {
+		return totalSize == 0;
+	}
+	public void clear() {
+		this.totalSize = 0;
+		this.height = 0;
+		this.root = null;
+		this.head = null;
+		this.modCount++;
+	}
+	@Override
+	public Iterator<E> iterator() {
+		return new Cursor(null, null);
+	}
+	/**
+	 * 沿着叶子链表前进的游标，只保存当前叶子和位置，不拷贝任何数据。
+	 */
+	private class Cursor implements Iterator<E> {
+		final E to;
+		Node<E> leaf;
+		int index;
+		int expectedModCount = modCount;
+		E lastRet;
+		/**
+		 * @param from 起始关键字（包含），null表示从最小关键字开始
+		 * @param to 结束关键字（不包含），null表示一直到最大关键字
+		 */
+		Cursor(E from, E to) {
+			this.to = to;
+			if (from == null) {
+				leaf = totalSize == 0 ? null : head;
+				index = 0;
+			} else {
+				seek(from);
+			}
+			checkBound();
+		}
+		/**
+		 * 定位到第一个大于等于key的关键字。
+		 */
+		private void seek(E key) {
+			if (totalSize == 0) {
+				leaf = null;
+				return;
+			}
+			leaf = findLeaf(key);
+			index = leaf.binarySearch(key);
+			if (index < 0)
+				index = -index - 1;
+			if (index >= leaf.size) {
+				leaf = leaf.next;
+				index = 0;
+			}
+		}
+		/**
+		 * 若下一个关键字超过上界，结束迭代。
+		 */
+		private void checkBound() {
+			if (leaf != null && to != null && cmp(leaf.keys[index], to) >= 0) {
+				leaf = null;
+			}
+		}
+		@Override
+		public boolean hasNext() {
+			return leaf != null;
+		}
+		@SuppressWarnings("unchecked")
+		@Override
+		public E next() {
+			checkForComodification();
+			if (leaf == null)
+				throw new NoSuchElementException();
+			lastRet = (E)leaf.keys[index];
+			if (++index >= leaf.size) {
+				leaf = leaf.next;
+				index = 0;
+			}
+			checkBound();
+			return lastRet;
+		}
+		@Override
+		public void remove() {
+			if (lastRet == null) {
+				throw new IllegalStateException();
+			}
+			checkForComodification();
+			BPlusTree.this.remove(lastRet);
+			expectedModCount = modCount;
+			// 删除可能引起叶子合并，重新定位游标。
+			seek(lastRet);
+			checkBound();
+			lastRet = null;
+		}
+		final void checkForComodification() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+		}
+	}
+	/**
+	 * B+树节点，叶子节点通过next指向右边的叶子。
+	 * @author fgp
+	 *
+	 * @param <T> 节点存储关键字的类型。
+	 */
+	final class Node<T> {
+		Object[] keys;
+		Node<T>[] children;
+		Node<T> parent;
+		Node<T> next;
+		boolean isLeaf;
+		int size;
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Node(boolean isLeaf) {
+			this.keys = new Object[order];
+			this.isLeaf = isLeaf;
+			if (!isLeaf) {
+				this.children = new Node[order + 1];
+			}
+			this.size = 0;
+		}
+		/**
+		 * 在内部二分查找关键字。
+		 * @param key 需要查找的关键字。
+		 * @return 若关键字存在，返回位置。否则不存在，假设插入的位置为i，则返回-(i + 1).
+		 */
+		int binarySearch(Object key) {
+			int low = 0;
+			int high = size - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				int cmp = cmp(key, keys[mid]);
+				if (cmp == 0)
+					return mid;
+				if (cmp < 0) {
+					high = mid - 1;
+				} else {
+					low = mid + 1;
+				}
+			}
+			return -(low + 1);
+		}
+		/**
+		 * 返回关键字所在的孩子位置，等于分隔符的关键字位于右子树。
+		 */
+		int childIndex(Object key) {
+			int index = binarySearch(key);
+			return index >= 0 ? index + 1 : -index - 1;
+		}
+		/**
+		 * 在index处插入关键字，若是内部节点，right作为该关键字的右孩子。
+		 */
+		void insertAt(int index, Object key, Node<T> right) {
+			System.arraycopy(keys, index, keys, index + 1, size - index);
+			keys[index] = key;
+			if (!isLeaf && right != null) {
+				System.arraycopy(children, index + 1, children, index + 2, size - index);
+				children[index + 1] = right;
+			}
+			size++;
+		}
+		void deleteAt(int index) {
+			System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+			keys[--size] = null;
+		}
+		@Override
+		public String toString() {
+			if (size == 0)
+				return "[]";
+			StringBuilder sb = new StringBuilder("[");
+			for (int i = 0; i < size; ++i) {
+				sb.append(keys[i] + ",");
+			}
+			sb.deleteCharAt(sb.length() - 1);
+			sb.append(']');
+			return sb.toString();
+		}
+	}
+}
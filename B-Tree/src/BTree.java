@@ -16,6 +16,11 @@ public class BTree<E> implements Iterable<E> {
 	private int height;
 	private int totalSize;
 	private int modCount;
+	private int epoch; // 当前版本，版本号小于它的节点被快照共享，修改前必须先拷贝
+	/**
+	 * 批量构建时默认的节点填充率。
+	 */
+	public static final double DEFAULT_FILL_FACTOR = 1.0;
 	/**
 	 * 创建一个m阶B树。
 	 * @param order B树的阶
@@ -40,121 +45,184 @@ public class BTree<E> implements Iterable<E> {
 	public BTree(int order) {
 		this(order, null);
 	}
+	/**
+	 * 从列表中构建m阶B树，列表只会被读取，不会被修改。
+	 * @param list 关键字列表，可以无序、有重复。
+	 * @param order B树的阶。
+	 * @param comparator 关键字比较器。
+	 */
 	public BTree(List<E> list, int order, Comparator<E> comparator) {
 		this(order, comparator);
-		E extra = prepare(list, order); // 排重、排序、如果刚好整除order，还需要剔除一个元素，必须要求最后一个叶子关键字数量了少于order
-		this.totalSize = list.size();
-		if (totalSize > 0) {
-			initFromList(list);
-			if (extra != null)
-				add(extra);
-		}
+		loadSorted(sortedCopy(list).iterator(), DEFAULT_FILL_FACTOR);
 	}
 	public BTree(List<E> list, int order) {
 		this(list, order, null);
 	}
 	public static <T> BTree<T> build(Collection<T> c, int order, Comparator<T> comparator) {
-		List<T> list;
-		if (c instanceof List) {
-			list = (List<T>)c;
-		} else {
-			list = new ArrayList<T>(c.size());
-			list.addAll(c);
-		}
-		return new BTree<T>(list, order, comparator);
+		return build(c, order, comparator, DEFAULT_FILL_FACTOR);
 	}
 	public static <T> BTree<T> build(Collection<T>c, int order) {
 		return build(c, order, null);
 	}
-	private E prepare(List<E> list, int order) {
-		// 排重
-		Set<E> set = new HashSet<>(list.size());
-		set.addAll(list);
-		list.clear();
-		list.addAll(set);
-		// 排序
-		sort(list);
-		E extra = null;
-		if (!list.isEmpty() && list.size() % order == 0) {
-			extra = list.remove(list.size() - 1);
-		}
-		return extra;
-	}
-	@SuppressWarnings({ "unchecked", "rawtypes" })
-	private void sort(List<E> list) {
-		if (list == null || list.size() < 2)
+	/**
+	 * 从容器中构建m阶B树，先拷贝一份排序一次，然后自底向上批量构建，容器本身不会被修改。
+	 * @param c 关键字容器，可以无序、有重复。
+	 * @param order B树的阶。
+	 * @param comparator 关键字比较器。
+	 * @param fillFactor 节点填充率，取值(0, 1]，节点关键字数量为最大关键字数量乘以填充率。
+	 * @return 构建的B树。
+	 */
+	public static <T> BTree<T> build(Collection<T> c, int order, Comparator<T> comparator, double fillFactor) {
+		BTree<T> tree = new BTree<T>(order, comparator);
+		tree.loadSorted(tree.sortedCopy(c).iterator(), fillFactor);
+		return tree;
+	}
+	/**
+	 * 从有序的迭代器中自底向上批量构建m阶B树，复杂度为O(n)。
+	 * 相邻的重复关键字只保留一个，若关键字不是递增的，抛出IllegalArgumentException。
+	 * @param sorted 按递增顺序返回关键字的迭代器。
+	 * @param order B树的阶。
+	 * @param comparator 关键字比较器。
+	 * @param fillFactor 节点填充率，取值(0, 1]。
+	 * @return 构建的B树。
+	 */
+	public static <T> BTree<T> fromSorted(Iterator<? extends T> sorted, int order, Comparator<T> comparator, double fillFactor) {
+		BTree<T> tree = new BTree<T>(order, comparator);
+		tree.loadSorted(sorted, fillFactor);
+		return tree;
+	}
+	public static <T> BTree<T> fromSorted(Iterator<? extends T> sorted, int order, Comparator<T> comparator) {
+		return fromSorted(sorted, order, comparator, DEFAULT_FILL_FACTOR);
+	}
+	public static <T> BTree<T> fromSorted(Iterator<? extends T> sorted, int order) {
+		return fromSorted(sorted, order, null);
+	}
+	/**
+	 * 拷贝容器的元素并排序一次，不修改原容器。
+	 */
+	@SuppressWarnings("unchecked")
+	private List<E> sortedCopy(Collection<? extends E> c) {
+		Object[] a = c.toArray();
+		Arrays.sort(a, (Comparator<Object>)comparator);
+		return (List<E>)Arrays.asList(a);
+	}
+	/**
+	 * 自底向上批量构建。每一层只保留最右边正在填充的节点，节点填满后，下一个关键字作为分隔符
+	 * 上移到上一层，并开始填充新的节点。全部关键字处理完后，最右边一条路径上的节点可能不足最少
+	 * 关键字数量，再从上往下通过旋转或者合并调整。
+	 * @param sorted 有序的关键字迭代器。
+	 * @param fillFactor 节点填充率。
+	 */
+	private void loadSorted(Iterator<? extends E> sorted, double fillFactor) {
+		if (!(fillFactor > 0 && fillFactor <= 1)) {
+			throw new IllegalArgumentException("The fill factor should be in (0, 1]");
+		}
+		int fill = Math.max(MIN_KEYS, Math.min(MAX_KEYS, (int)Math.round(MAX_KEYS * fillFactor)));
+		List<Node<E>> levels = new ArrayList<>(); // 每一层最右边的节点，第0层是叶子
+		levels.add(new Node<E>());
+		E last = null;
+		int n = 0;
+		while (sorted.hasNext()) {
+			E key = sorted.next();
+			if (key == null)
+				continue;
+			if (last != null) {
+				int c = cmp(key, last);
+				if (c == 0) // 相邻排重
+					continue;
+				if (c < 0)
+					throw new IllegalArgumentException("The keys are not in ascending order: " + last + ", " + key);
+			}
+			last = key;
+			n++;
+			Node<E> leaf = levels.get(0);
+			if (leaf.size < fill) {
+				leaf.values[leaf.size++] = key;
+			} else { // 叶子已满，key作为分隔符上移，开始填充新的叶子
+				Node<E> newLeaf = new Node<E>();
+				levels.set(0, newLeaf);
+				promote(levels, 1, leaf, key, newLeaf, fill);
+			}
+		}
+		if (n == 0) {
 			return;
-		if (comparator != null) {
-			Collections.sort(list, comparator);
-		} else {
-			Collections.sort((List<Comparable>)list);
 		}
+		this.totalSize = n;
+		this.height = levels.size();
+		this.root = levels.get(levels.size() - 1);
+		this.modCount++;
+		while (!root.isLeaf && root.size == 0) { // 根节点没有关键字，只有一个孩子
+			root = root.children[0];
+			root.parent = null;
+			height--;
+		}
+		countSubtree(root);
+		fixRightmostPath();
 	}
-	@SuppressWarnings( "unchecked")
-	private void initFromList(List<E> list) {
-		// 构造叶子节点，要求最后一个叶子关键字必须少于order，其余叶子关键字数量必须等于order
-		int n = (list.size() - 1 + order) / order;
-		Node<E>[] nodes = new Node[n];
-		for (int i = 0; i < n; ++i) {
-			nodes[i] = new Node<E>();
-			for (int j = 0; j < order; ++j) {
-				if (i * order + j < list.size()) {
-					nodes[i].values[j] = list.get(i * order + j);
-					nodes[i].size++;
-				}
+	/**
+	 * 把分隔符key插入到level层，left是下一层已满的节点，right是下一层新开始填充的节点。
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private void promote(List<Node<E>> levels, int level, Node<E> left, Object key, Node<E> right, int fill) {
+		if (level == levels.size()) { // 树长高一层
+			Node<E> top = new Node<E>();
+			top.isLeaf = false;
+			top.children = new Node[order + 1];
+			top.children[0] = left;
+			left.parent = top;
+			levels.add(top);
+		}
+		Node<E> parent = levels.get(level);
+		if (parent.size < fill) {
+			parent.values[parent.size] = key;
+			parent.size++;
+			parent.children[parent.size] = right;
+			right.parent = parent;
+		} else { // 上一层也满了，继续上移
+			Node<E> sibling = new Node<E>();
+			sibling.isLeaf = false;
+			sibling.children = new Node[order + 1];
+			sibling.children[0] = right;
+			right.parent = sibling;
+			levels.set(level, sibling);
+			promote(levels, level + 1, parent, key, sibling, fill);
+		}
+	}
+	/**
+	 * 计算子树p中每个节点的关键字总数。
+	 * @param p 子树
+	 * @return 子树p的关键字总数
+	 */
+	private int countSubtree(Node<E> p) {
+		int count = p.size;
+		if (!p.isLeaf) {
+			for (int i = 0; i <= p.size; ++i) {
+				count += countSubtree(p.children[i]);
 			}
 		}
-		this.height = 1;
-		// make internal nodes;
-		int lastN;
-		while (true) {
-			height ++;
-			lastN = n;
-			int m = 0;
-			for (int i = 0; i < n; ++i) {
-				if (nodes[i].size == order) {
-					m++;
-				}
+		p.count = count;
+		return count;
+	}
+	/**
+	 * 从上往下调整最右边一条路径上关键字不足的节点。最右节点没有右兄弟，只能从左兄弟借，
+	 * 左兄弟不富裕时合并，合并可能引起上层节点的调整，因此合并后从头开始检查。
+	 */
+	private void fixRightmostPath() {
+		for (int depth = 1; depth < height; ++depth) {
+			Node<E> p = root;
+			for (int i = 0; i < depth; ++i) {
+				p = p.children[p.size];
 			}
-			if (m < 1)
-				break;
-			n = (m - 1 + order) / order;
-			Node<E>[]p = new Node[n];
-			for (int i = 0; i < n; ++i) {
-				p[i] = new Node<E>();
-				p[i].children = new Node[order + 1];
-				p[i].isLeaf = false;
-				for (int j = 0; j < order; ++j) {
-					int index = i * order + j;
-					if (index >= lastN)
-						break;
-					int size = nodes[index].size;
-					if (size < order) {
-						break;
-					}
-					p[i].values[j] = nodes[index].values[size - 1]; // 取最后一个节点作为上层节点的alue
-					nodes[index].values[size - 1] = null;
-					p[i].size++; // 上层节点数量+1
-					nodes[index].size--; // 下层节点数量-1
-					nodes[index].parent = p[i]; // 更新下层节点的父亲节点指向上层节点
-					p[i].children[j] = nodes[index]; // 更新上层节点的的孩子节点指向内部节点
+			while (p.size < MIN_KEYS) {
+				if (leftSibling(p).size > MIN_KEYS) {
+					rightRotate(p);
+				} else {
+					merge(p);
+					depth = 0;
+					break;
 				}
 			}
-			// 更新最后一个节点，上层节点的最后一个孩子指向下层的最后一个节点，下层最后一个节点的parent指向上层最后一个节点
-			Node<E> newLast = p[n - 1];
-			Node<E> oldLast;
-			//下层最后一个节点取决于最后一个节点关键字数量是否order
-			if (newLast.children[newLast.size - 1] == nodes[lastN - 1]) {
-				oldLast = nodes[lastN - 1].children[order];
-			} else {
-				oldLast = nodes[lastN - 1];
-			}
-			newLast.children[newLast.size] = oldLast;
-			oldLast.parent = newLast;
-			// 更新工作节点。
-			nodes = p;
 		}
-		this.root = nodes[0];
 	}
 	@SuppressWarnings("unchecked")
 	private int cmp(Object e1, Object e2) {
@@ -241,7 +309,13 @@ public class BTree<E> implements Iterable<E> {
 				return false;
 			return insert(key, p.children[index]); // 插入的位置就是孩子的位置
 		}
+		if (p.binarySearch(key) >= 0)
+			return false;
+		p = writable(p);
 		boolean inserted = p.insertToLeaf(key) >= 0; // p是叶子节点，直接插入。
+		if (inserted) {
+			addCount(p, 1); // 先更新路径上的子树关键字总数，分裂不会改变父亲节点的总数
+		}
 		
 		if (p.size > MAX_KEYS) { // 如果关键字多于最大关键字数量，需要分裂节点。
 			split(p);
@@ -262,6 +336,7 @@ public class BTree<E> implements Iterable<E> {
 			root = parent; // 更新root节点
 			height++; // 高度加1
 			parent.children = new Node[order + 1]; // 创建孩子节点，由于是先插入，再分裂，实际空间要大一
+			parent.count = p.count;
 		}
 		int mid = (p.size - 1) >>> 1;
 		Node<E> left = new Node<E>(); // 分裂，创建一个新的空节点
@@ -306,6 +381,8 @@ public class BTree<E> implements Iterable<E> {
 			right.children[j] = right.children[right.size]; // 更新最后一个孩子节点, 注意奇数j == mid，但偶数不是。。
 		}
 		right.size = right.size - mid - 1; // 更新右子树关键字数量
+		left.recount();
+		right.recount();
 		left.parent = parent; // 把子树的父亲节点更新
 		right.parent = parent;
 		if (parent.size > MAX_KEYS) // 如果父亲节点也达到最大关键字数量，需要递归分裂。
@@ -313,15 +390,76 @@ public class BTree<E> implements Iterable<E> {
 	}
 	/**
 	 * 把指定容器的所有元素加入到树中。
+	 * 先拷贝并排序一次，落在同一个叶子中的关键字只需要从根节点查找一次，然后一起插入该叶子。
 	 * @param c 指定的容器，容器的元素将加入到此树中。
 	 * @return 若调用此方法引起了B-tree的改变，返回true，否则返回false，表示没有成功添加任何元素
 	 */
 	public boolean addAll(Collection<? extends E> c) {
-		boolean isModify = false;
-		for (E e : c) {
-			isModify |= add(e);
+		@SuppressWarnings("unchecked")
+		E[] keys = (E[])sortedBatch(c);
+		int inserted = 0;
+		int i = 0;
+		while (i < keys.length) {
+			if (root == null) {
+				root = new Node<E>();
+				this.height = 1;
+			}
+			E key = keys[i];
+			Object upper = null; // 叶子中关键字的上界，即路径上key右边最近的分隔符
+			Node<E> p = root;
+			boolean exists = false;
+			while (!p.isLeaf) {
+				int index = p.binarySearch(key);
+				if (index >= 0) {
+					exists = true;
+					break;
+				}
+				index = -index - 1;
+				if (index < p.size)
+					upper = p.values[index];
+				p = p.children[index];
+			}
+			if (exists || p.binarySearch(key) >= 0) {
+				i++;
+				continue;
+			}
+			p = writable(p);
+			int added = 0;
+			// 把小于上界的关键字一起插入到这个叶子，叶子满了就先分裂
+			while (i < keys.length && (upper == null || cmp(keys[i], upper) < 0) && p.size <= MAX_KEYS) {
+				if (p.insertToLeaf(keys[i++]) >= 0)
+					added++;
+			}
+			addCount(p, added);
+			totalSize += added;
+			inserted += added;
+			if (p.size > MAX_KEYS) {
+				split(p);
+			}
 		}
-		return isModify;
+		if (inserted > 0)
+			modCount++;
+		return inserted > 0;
+	}
+	/**
+	 * 拷贝容器中的非null元素，排序并排重。
+	 */
+	private Object[] sortedBatch(Collection<?> c) {
+		Object[] keys = new Object[c.size()];
+		int n = 0;
+		for (Object e : c) {
+			if (e != null)
+				keys[n++] = e;
+		}
+		@SuppressWarnings("unchecked")
+		Comparator<Object> comparator = (Comparator<Object>)this.comparator;
+		Arrays.sort(keys, 0, n, comparator);
+		int m = 0;
+		for (int i = 0; i < n; ++i) {
+			if (m == 0 || cmp(keys[m - 1], keys[i]) != 0)
+				keys[m++] = keys[i];
+		}
+		return m == keys.length ? keys : Arrays.copyOf(keys, m);
 	}
 	
 	/**
@@ -342,18 +480,70 @@ public class BTree<E> implements Iterable<E> {
 	}
 	/**
 	 * 把指定容器的所有元素从此树中删除。
+	 * 与addAll一样，先排序，落在同一个叶子中的关键字一起删除。
 	 * @param c 指定的容器。
 	 * @return 若调用次方法引起了此树的改变，返回true，否则返回false。
 	 */
 	public boolean removeAll(Collection<? extends E> c) {
-		boolean isModify = false;
-		for (E e : c)
-			isModify |= remove(e);
-		return isModify;
+		@SuppressWarnings("unchecked")
+		E[] keys = (E[])sortedBatch(c);
+		int removed = 0;
+		int i = 0;
+		while (i < keys.length && root != null) {
+			E key = keys[i];
+			Object upper = null;
+			Node<E> p = root;
+			boolean inInternal = false;
+			while (!p.isLeaf) {
+				int index = p.binarySearch(key);
+				if (index >= 0) {
+					inInternal = true;
+					break;
+				}
+				index = -index - 1;
+				if (index < p.size)
+					upper = p.values[index];
+				p = p.children[index];
+			}
+			if (inInternal) { // 关键字在内部节点中，按单个删除处理
+				if (remove(key))
+					removed++;
+				i++;
+				continue;
+			}
+			int deleted = 0;
+			// 把小于上界的关键字一起从这个叶子删除，叶子贫困了就先调整
+			while (i < keys.length && (upper == null || cmp(keys[i], upper) < 0)) {
+				E e = keys[i++];
+				if (p.binarySearch(e) < 0)
+					continue;
+				p = writable(p);
+				p.deleteFromLeaf(e);
+				deleted++;
+				if (p != root && p.size < MIN_KEYS)
+					break;
+			}
+			if (deleted > 0) {
+				addCount(p, -deleted);
+				totalSize -= deleted;
+				removed += deleted;
+				modCount++;
+				if (p.size < MIN_KEYS) {
+					rebalancingAfterDeletion(p);
+				}
+			}
+		}
+		return removed > 0;
 	}
 	private boolean remove(E e, Node<E> p) {
 		if (p.isLeaf) { // 删除的关键字在叶子节点中，直接删除，然后重新调整
+			if (p.binarySearch(e) < 0)
+				return false;
+			p = writable(p);
 			boolean isRemoved = p.deleteFromLeaf(e);
+			if (isRemoved) {
+				addCount(p, -1);
+			}
 			if (p.size < MIN_KEYS) {
 				rebalancingAfterDeletion(p); // rebalances the tree
 			}
@@ -364,11 +554,13 @@ public class BTree<E> implements Iterable<E> {
 			return remove(e, p.children[-index - 1]); // -index - 1就是插入位置，即孩子节点位置。
 		}
 		// 删除的是内部节点，需要寻找左子树最大节点（或者右子树中最小节点）作为新分隔符替换删除的关键字。
-		Node<E> leftLeaf = leftLeaf(p, index);// 寻找左子树最右节点。
+		p = writable(p);
+		Node<E> leftLeaf = writable(leftLeaf(p, index));// 寻找左子树最右节点。
 		Object candidate = leftLeaf.values[leftLeaf.size - 1];
 		//从叶子节点中移除候选节点
 		leftLeaf.values[leftLeaf.size - 1] = null;
 		leftLeaf.size--;
+		addCount(leftLeaf, -1);
 		//候选节点作为分隔符替代删除的节点。
 		p.values[index] = candidate;
 		//重新调整树使其平衡。
@@ -377,6 +569,181 @@ public class BTree<E> implements Iterable<E> {
 		}
 		return true;
 	}
+	/**
+	 * 返回p在当前版本中可以修改的节点。若p被快照共享，则拷贝p（以及它的祖先），
+	 * 用拷贝替换p在父亲节点中的位置，原来的节点保持不变，留给快照读取。
+	 * 快照只从上往下读取，不使用parent指针，因此共享节点的parent指针可以随意修改。
+	 * @param p 当前树中的节点
+	 * @return 可以修改的节点
+	 */
+	private Node<E> writable(Node<E> p) {
+		if (p.epoch == epoch)
+			return p;
+		Node<E> copy = p.copy();
+		if (p.parent == null) {
+			root = copy;
+		} else {
+			Node<E> parent = writable(p.parent); // 拷贝父亲节点时，p.parent已经指向父亲节点的拷贝
+			parent.children[rankInChildren(p)] = copy;
+			copy.parent = parent;
+		}
+		return copy;
+	}
+	/**
+	 * 返回当前树的只读快照，复杂度为O(1)。
+	 * 快照与树共享所有节点，之后树的修改会拷贝被修改的节点及其祖先（path copying），不影响快照。
+	 * 快照不会再改变，可以在其他线程中与写操作同时读取。
+	 * @return 当前树的快照
+	 */
+	public Snapshot snapshot() {
+		Snapshot snapshot = new Snapshot(root, totalSize, getHeight());
+		epoch++;
+		return snapshot;
+	}
+	/**
+	 * B树的只读快照。
+	 */
+	public final class Snapshot implements Iterable<E> {
+		private final Node<E> root;
+		private final int size;
+		private final int height;
+		Snapshot(Node<E> root, int size, int height) {
+			this.root = root;
+			this.size = size;
+			this.height = height;
+		}
+		public boolean contains(E key) {
+			if (key == null)
+				return false;
+			return BTree.this.contains(key, root);
+		}
+		public E select(int k) {
+			return BTree.this.select(root, size, k);
+		}
+		public int rank(E key) {
+			return BTree.this.rank(root, key);
+		}
+		public int size() {
+			return size;
+		}
+		public boolean isEmpty() {
+			return size == 0;
+		}
+		public int getHeight() {
+			return height;
+		}
+		@Override
+		public Iterator<E> iterator() {
+			final Cursor cursor = new Cursor(root, height);
+			return new Iterator<E>() {
+				@Override
+				public boolean hasNext() {
+					return cursor.hasNext();
+				}
+				@Override
+				public E next() {
+					if (!cursor.hasNext())
+						throw new NoSuchElementException();
+					return cursor.next();
+				}
+			};
+		}
+	}
+	/**
+	 * 中序遍历的游标，使用深度为树高的栈，不使用parent指针，不分配额外对象。
+	 */
+	private class Cursor {
+		Node<E>[] nodes;
+		int[] pos;
+		int depth = -1;
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Cursor(Node<E> root, int height) {
+			nodes = new Node[height];
+			pos = new int[height];
+			if (root != null && root.size > 0) {
+				push(root, 0);
+				descendLeftmost();
+				normalize();
+			}
+		}
+		private void push(Node<E> p, int index) {
+			++depth;
+			nodes[depth] = p;
+			pos[depth] = index;
+		}
+		/**
+		 * 从栈顶节点的当前孩子开始一直往左走到叶子。
+		 */
+		private void descendLeftmost() {
+			Node<E> p = nodes[depth];
+			while (!p.isLeaf) {
+				p = p.children[pos[depth]];
+				push(p, 0);
+			}
+		}
+		/**
+		 * 弹出已经遍历完的节点，使栈顶指向下一个关键字。
+		 */
+		private void normalize() {
+			while (depth >= 0 && pos[depth] >= nodes[depth].size) {
+				nodes[depth--] = null;
+			}
+		}
+		/**
+		 * 重新定位到第一个不小于key的关键字，复杂度为O(log n)。
+		 * 只有树的高度超过栈的深度时才重新分配栈。
+		 */
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		void seek(Node<E> root, int height, E key) {
+			while (depth >= 0) {
+				nodes[depth--] = null;
+			}
+			if (nodes.length < height) {
+				nodes = new Node[height];
+				pos = new int[height];
+			}
+			if (root == null || root.size == 0) {
+				return;
+			}
+			Node<E> p = root;
+			while (true) {
+				int index = p.binarySearch(key);
+				if (index >= 0) {
+					push(p, index);
+					break;
+				}
+				index = -index - 1;
+				push(p, index);
+				if (p.isLeaf) {
+					break;
+				}
+				p = p.children[index];
+			}
+			normalize();
+		}
+		boolean hasNext() {
+			return depth >= 0;
+		}
+		@SuppressWarnings("unchecked")
+		E next() {
+			Node<E> p = nodes[depth];
+			E e = (E)p.values[pos[depth]];
+			pos[depth]++;
+			if (!p.isLeaf) {
+				descendLeftmost();
+			}
+			normalize();
+			return e;
+		}
+	}
+	/**
+	 * 把p以及p的所有祖先节点的子树关键字总数加上delta。
+	 */
+	private void addCount(Node<E> p, int delta) {
+		for (; p != null; p = p.parent) {
+			p.count += delta;
+		}
+	}
 	/**
 	 * 找到p节点的左兄弟
 	 * @param p 需要查找的节点
@@ -452,7 +819,7 @@ public class BTree<E> implements Iterable<E> {
 	 * @param p 贫困节点
 	 */
 	private void leftRotate(Node<E> p) {
-		Node<E> right = rightSibling(p);
+		Node<E> right = writable(rightSibling(p));
 		int myRank = rankInChildren(p);
 		Object oldSeparator = p.parent.values[myRank];
 		p.values[p.size] = oldSeparator;
@@ -472,9 +839,12 @@ public class BTree<E> implements Iterable<E> {
 		}
 		right.size--;
 		p.parent.values[myRank] = newSeparator;
+		int moved = 1 + (child == null ? 0 : child.count); // 分隔符和孩子子树从右兄弟移到p
+		p.count += moved;
+		right.count -= moved;
 	}
 	private void rightRotate(Node<E> p) {
-		Node<E> left = leftSibling(p);
+		Node<E> left = writable(leftSibling(p));
 		int myRank = rankInChildren(p);
 		Object oldSeparator = p.parent.values[myRank - 1];
 		Node<E> child = null;
@@ -496,6 +866,9 @@ public class BTree<E> implements Iterable<E> {
 		Object newSeparator = left.values[left.size - 1];
 		left.size--;
 		p.parent.values[myRank - 1] = newSeparator;
+		int moved = 1 + (child == null ? 0 : child.count); // 分隔符和孩子子树从左兄弟移到p
+		p.count += moved;
+		left.count -= moved;
 	}
 	/**
 	 * 合并操作
@@ -507,7 +880,7 @@ public class BTree<E> implements Iterable<E> {
 		Node<E> left = p; // left node 或者是当前节点，即贫困节点，或者是当前节点的左兄弟节点。
 		Node<E> right = rightSibling(p);
 		if (right == null) {
-			left = leftSibling(p);
+			left = writable(leftSibling(p));
 			right = p;
 		}
 		int myRank = rankInChildren(left);
@@ -534,6 +907,7 @@ public class BTree<E> implements Iterable<E> {
 				left.children[left.size - 1] = right.children[i];
 			}
 		}
+		left.count += 1 + right.count;
 		// 不要忘记最后一个孩子更新。
 		if (!left.isLeaf) {
 			right.children[right.size].parent = left;
@@ -583,6 +957,74 @@ public class BTree<E> implements Iterable<E> {
 		}
 		return isModify;
 	}
+	/**
+	 * 返回第k小的关键字（从0开始），复杂度为O(log n)。
+	 * @param k 关键字的序号
+	 * @return 第k小的关键字
+	 * @throws IndexOutOfBoundsException 若k < 0或者k >= size()
+	 */
+	public E select(int k) {
+		return select(root, totalSize, k);
+	}
+	@SuppressWarnings("unchecked")
+	private E select(Node<E> p, int size, int k) {
+		if (k < 0 || k >= size) {
+			throw new IndexOutOfBoundsException("Index: " + k + ", Size: " + size);
+		}
+		while (!p.isLeaf) {
+			int i;
+			for (i = 0; i < p.size; ++i) {
+				int c = p.children[i].count;
+				if (k < c)
+					break;
+				k -= c;
+				if (k == 0)
+					return (E)p.values[i];
+				k--;
+			}
+			p = p.children[i];
+		}
+		return (E)p.values[k];
+	}
+	/**
+	 * 返回小于key的关键字数量，即key在树中（或者插入后）的序号，复杂度为O(log n)。
+	 * @param key 需要查询的关键字
+	 * @return 小于key的关键字数量
+	 */
+	public int rank(E key) {
+		return rank(root, key);
+	}
+	private int rank(Node<E> p, E key) {
+		Objects.requireNonNull(key);
+		int rank = 0;
+		while (p != null) {
+			int index = p.binarySearch(key);
+			int pos = index >= 0 ? index : -index - 1; // p中小于key的关键字数量
+			rank += pos;
+			if (p.isLeaf)
+				break;
+			for (int i = 0; i < pos; ++i) {
+				rank += p.children[i].count;
+			}
+			if (index >= 0) { // key的左子树全部小于key
+				rank += p.children[index].count;
+				break;
+			}
+			p = p.children[pos];
+		}
+		return rank;
+	}
+	/**
+	 * 返回在[from, to)之间的关键字数量，复杂度为O(log n)。
+	 * @param from 起始关键字（包含）
+	 * @param to 结束关键字（不包含）
+	 * @return 在[from, to)之间的关键字数量
+	 */
+	public int countInRange(E from, E to) {
+		if (cmp(from, to) > 0)
+			throw new IllegalArgumentException("from > to");
+		return rank(to) - rank(from);
+	}
 	public void print() {
 		print(root);
 	}
@@ -692,50 +1134,41 @@ public class BTree<E> implements Iterable<E> {
 	public Iterator<E> iterator() {
 		return new Iter();
 	}
+	/**
+	 * 按关键字递增顺序惰性遍历，用深度为树高的栈记录路径，next()不分配内存。
+	 * remove()删除上一个返回的关键字后，重新定位到它的后继，复杂度为O(log n)。
+	 */
 	private class Iter implements Iterator<E> {
-		Object[] data = toArrays();
+		final Cursor cursor = new Cursor(root, height);
 		int expectedModCount = modCount;
-		int lastRet = -1;
-		int cursor;
+		E lastRet;
+		boolean canRemove;
 		@Override
 		public boolean hasNext() {
-			return cursor != totalSize;
+			return cursor.hasNext();
 		}
 
-		@SuppressWarnings("unchecked")
 		@Override
 		public E next() {
 			checkForComodification();
-			int i = cursor;
-			if (i >= totalSize)
+			if (!cursor.hasNext())
 				throw new NoSuchElementException();
-			if (i > data.length)
-				throw new ConcurrentModificationException();
-			cursor = i + 1;
-			return (E)data[lastRet = i];
+			lastRet = cursor.next();
+			canRemove = true;
+			return lastRet;
 		}
 
-		@SuppressWarnings("unchecked")
 		@Override
 		public void remove() {
-			if (lastRet < 0) {
+			if (!canRemove) {
 				throw new IllegalStateException();
 			}
 			checkForComodification();
-			try {
-				E removed = (E)data[lastRet];
-				for (int i = lastRet; i < totalSize - 1; ++i) {
-					data[i] = data[i + 1];
-				}
-				data[totalSize - 1] = null;
-				BTree.this.remove(removed);
-				cursor = lastRet;
-				lastRet = -1;
-				expectedModCount = modCount;
-			} catch (IndexOutOfBoundsException e) {
-				throw new ConcurrentModificationException();
-			}
-			
+			BTree.this.remove(lastRet);
+			cursor.seek(root, height, lastRet);
+			lastRet = null;
+			canRemove = false;
+			expectedModCount = modCount;
 		}
 		final void checkForComodification() {
 			if (modCount != expectedModCount) {
@@ -755,10 +1188,31 @@ public class BTree<E> implements Iterable<E> {
 		Node<T> parent;
 		boolean isLeaf;
 		int size;
+		int count; // 子树中关键字的总数
+		int epoch; // 节点创建时树的版本
 		Node() {
 			this.values = new Object[order];
 			this.isLeaf = true;
 			this.size = 0;
+			this.epoch = BTree.this.epoch;
+		}
+		/**
+		 * 拷贝节点，拷贝属于当前版本，孩子节点的parent指针指向拷贝。
+		 */
+		Node<T> copy() {
+			Node<T> copy = new Node<T>();
+			copy.values = values.clone();
+			copy.isLeaf = isLeaf;
+			copy.size = size;
+			copy.count = count;
+			copy.parent = parent;
+			if (!isLeaf) {
+				copy.children = children.clone();
+				for (int i = 0; i <= size; ++i) {
+					children[i].parent = copy;
+				}
+			}
+			return copy;
 		}
 		/**
 		 * 在内部二分查找关键字。
@@ -838,6 +1292,18 @@ public class BTree<E> implements Iterable<E> {
 			this.size--;
 			return true;
 		}
+		/**
+		 * 根据孩子节点重新计算子树关键字总数。
+		 */
+		void recount() {
+			int c = size;
+			if (!isLeaf) {
+				for (int i = 0; i <= size; ++i) {
+					c += children[i].count;
+				}
+			}
+			count = c;
+		}
 		@Override
 		public String toString() {
 			if (size == 0)
@@ -0,0 +1,195 @@
+import java.util.*;
+
+/**
+ * 选择B树的阶。
+ * 一种方法是根据目标节点大小（比如64字节的缓存行、4KB的页面）和关键字类型计算阶数；
+ * 另一种方法是在给定的关键字样本上测试多个阶数的插入、查找吞吐量，选出最快的阶数。
+ * @author fgp
+ *
+ */
+public final class BTreeTuner {
+	public static final int CACHE_LINE_SIZE = 64;
+	public static final int PAGE_SIZE = 4096;
+	/**
+	 * 引用的大小，按开启压缩指针计算。
+	 */
+	public static final int REFERENCE_SIZE = 4;
+	/**
+	 * 数组对象头的大小。
+	 */
+	private static final int ARRAY_HEADER_SIZE = 16;
+	/**
+	 * 默认测试的阶数。
+	 */
+	private static final int[] DEFAULT_ORDERS = {4, 8, 16, 32, 64, 128, 256, 512};
+	private BTreeTuner() {
+	}
+	/**
+	 * 根据目标节点大小计算B树的阶。节点主要由关键字数组和孩子数组组成，
+	 * 每个关键字占用keyBytes字节和一个孩子引用，再减去两个数组的对象头。
+	 * @param nodeBytes 目标节点大小，单位字节
+	 * @param keyType 关键字类型，long.class和int.class表示关键字直接存放在数组中（LongBTree、IntBTree），
+	 *                其他类型表示关键字数组中存放的是引用（BTree）
+	 * @return B树的阶，至少为3
+	 */
+	public static int orderFor(int nodeBytes, Class<?> keyType) {
+		int keyBytes;
+		if (keyType == long.class) {
+			keyBytes = 8;
+		} else if (keyType == int.class) {
+			keyBytes = 4;
+		} else {
+			keyBytes = REFERENCE_SIZE;
+		}
+		return Math.max(3, (nodeBytes - 2 * ARRAY_HEADER_SIZE) / (keyBytes + REFERENCE_SIZE));
+	}
+	/**
+	 * 创建节点大小约为nodeBytes的B树。
+	 * @param nodeBytes 目标节点大小，比如CACHE_LINE_SIZE或者PAGE_SIZE
+	 * @param comparator 关键字比较器
+	 * @return B树
+	 */
+	public static <T> BTree<T> newBTree(int nodeBytes, Comparator<T> comparator) {
+		return new BTree<T>(orderFor(nodeBytes, Object.class), comparator);
+	}
+	/**
+	 * 创建节点大小约为nodeBytes的LongBTree。
+	 * @param nodeBytes 目标节点大小
+	 * @return LongBTree
+	 */
+	public static LongBTree newLongBTree(int nodeBytes) {
+		return new LongBTree(orderFor(nodeBytes, long.class));
+	}
+	/**
+	 * 创建节点大小约为nodeBytes的IntBTree。
+	 * @param nodeBytes 目标节点大小
+	 * @return IntBTree
+	 */
+	public static IntBTree newIntBTree(int nodeBytes) {
+		return new IntBTree(orderFor(nodeBytes, int.class));
+	}
+	/**
+	 * 一个阶数的测试结果。
+	 */
+	public static final class Result {
+		private final int order;
+		private final double insertsPerSecond;
+		private final double lookupsPerSecond;
+		Result(int order, double insertsPerSecond, double lookupsPerSecond) {
+			this.order = order;
+			this.insertsPerSecond = insertsPerSecond;
+			this.lookupsPerSecond = lookupsPerSecond;
+		}
+		public int getOrder() {
+			return order;
+		}
+		public double getInsertsPerSecond() {
+			return insertsPerSecond;
+		}
+		public double getLookupsPerSecond() {
+			return lookupsPerSecond;
+		}
+		/**
+		 * 插入一个关键字再查找一次的平均耗时，单位纳秒，用于比较不同阶数。
+		 */
+		double nanosPerInsertAndLookup() {
+			return 1e9 / insertsPerSecond + 1e9 / lookupsPerSecond;
+		}
+		@Override
+		public String toString() {
+			return String.format("order=%d inserts/s=%.0f lookups/s=%.0f", order, insertsPerSecond, lookupsPerSecond);
+		}
+	}
+	/**
+	 * 在关键字样本上依次测试各个阶数：先把样本逐个插入空树，再逐个查找，分别计算吞吐量。
+	 * 每个阶数先预热一轮，再取rounds轮中最好的结果。
+	 * @param sample 关键字样本，应当能代表实际的关键字分布和插入顺序
+	 * @param comparator 关键字比较器
+	 * @param rounds 每个阶数测试的轮数，必须大于0
+	 * @param orders 需要测试的阶数，每个都必须大于2，为空时使用默认的阶数
+	 * @return 每个阶数的测试结果
+	 * @throws IllegalArgumentException 轮数或阶数不合法时
+	 */
+	public static <T> List<Result> sweep(List<T> sample, Comparator<T> comparator, int rounds, int... orders) {
+		if (rounds <= 0) {
+			throw new IllegalArgumentException("The rounds should be positive: " + rounds);
+		}
+		if (orders == null || orders.length == 0) {
+			orders = DEFAULT_ORDERS;
+		}
+		for (int order : orders) {
+			if (order < 3) {
+				throw new IllegalArgumentException("The order of B-tree should be larger than 2: " + order);
+			}
+		}
+		List<Result> results = new ArrayList<>(orders.length);
+		for (int order : orders) {
+			measure(sample, comparator, order); // 预热
+			Result best = null;
+			for (int i = 0; i < rounds; ++i) {
+				Result r = measure(sample, comparator, order);
+				if (best == null || r.nanosPerInsertAndLookup() < best.nanosPerInsertAndLookup()) {
+					best = r;
+				}
+			}
+			results.add(best);
+		}
+		return results;
+	}
+	/**
+	 * 测试各个阶数，返回插入加查找总耗时最少的阶数。
+	 * @see #sweep(List, Comparator, int, int...)
+	 */
+	public static <T> int fastestOrder(List<T> sample, Comparator<T> comparator, int rounds, int... orders) {
+		Result best = null;
+		for (Result r : sweep(sample, comparator, rounds, orders)) {
+			if (best == null || r.nanosPerInsertAndLookup() < best.nanosPerInsertAndLookup()) {
+				best = r;
+			}
+		}
+		return best.getOrder();
+	}
+	private static <T> Result measure(List<T> sample, Comparator<T> comparator, int order) {
+		BTree<T> tree = new BTree<T>(order, comparator);
+		long start = System.nanoTime();
+		for (T e : sample) {
+			tree.add(e);
+		}
+		long insertNanos = Math.max(1, System.nanoTime() - start);
+		int found = 0;
+		start = System.nanoTime();
+		for (T e : sample) {
+			if (tree.contains(e))
+				found++;
+		}
+		long lookupNanos = Math.max(1, System.nanoTime() - start);
+		if (found != sample.size()) { // 使用查找结果，避免被JIT优化掉；样本中可能有重复的关键字，不能和size()比较
+			throw new IllegalStateException("Lookup mismatch: " + found + " != " + sample.size());
+		}
+		return new Result(order, sample.size() * 1e9 / insertNanos, sample.size() * 1e9 / lookupNanos);
+	}
+	/**
+	 * 用随机long关键字测试默认的阶数并打印结果。
+	 * 用法：java BTreeTuner [样本大小] [轮数]
+	 */
+	public static void main(String[] args) {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		Random random = new Random();
+		Set<Long> keys = new LinkedHashSet<>(n * 2);
+		while (keys.size() < n) {
+			keys.add(random.nextLong());
+		}
+		List<Long> sample = new ArrayList<>(keys);
+		System.out.println("cache line order: " + orderFor(CACHE_LINE_SIZE, Object.class)
+				+ ", page order: " + orderFor(PAGE_SIZE, Object.class));
+		Result best = null;
+		for (Result r : sweep(sample, null, rounds)) {
+			System.out.println(r);
+			if (best == null || r.nanosPerInsertAndLookup() < best.nanosPerInsertAndLookup()) {
+				best = r;
+			}
+		}
+		System.out.println("fastest: " + best.getOrder());
+	}
+}
@@ -0,0 +1,431 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 线程安全的B-link树。
+ * 与B+树一样，关键字只存放在叶子中。每个节点多保存一个右指针right和上界highKey，
+ * 节点分裂后，移到右节点的关键字仍然可以通过right找到（Lehman-Yao算法）。
+ * 每个节点有一个StampedLock作为版本号：查找只做乐观读，读完后校验版本号，失败则重读该节点，
+ * 不加任何锁；插入和删除只锁住需要修改的节点，分裂时自底向上依次锁住父亲节点。
+ * 删除时不合并节点，节点可能变得很空甚至为空，但不影响正确性。
+ * 关键字需要实现Comparable接口或者传递Comparator。
+ * @author fgp
+ *
+ * @param <E> 关键字类型。
+ */
+public class ConcurrentBTree<E> implements Iterable<E> {
+	private volatile Node<E> root;
+	private final Comparator<E> comparator;
+	private final int MAX_KEYS;
+	private final int order;
+	private final LongAdder totalSize = new LongAdder();
+	/**
+	 * 创建一个m阶B-link树。
+	 * @param order 树的阶
+	 * @param comparator 关键字比较器。
+	 */
+	public ConcurrentBTree(int order, Comparator<E> comparator) {
+		if (order < 3) {
+			throw new IllegalArgumentException("The order of B-tree should be larger than 2");
+		}
+		this.order = order;
+		this.comparator = comparator;
+		this.MAX_KEYS = order - 1;
+		this.root = new Node<E>(0, order);
+	}
+	/**
+	 * 创建一个m阶B-link树。
+	 * @param order 树的阶。
+	 */
+	public ConcurrentBTree(int order) {
+		this(order, null);
+	}
+	@SuppressWarnings("unchecked")
+	private int cmp(Object e1, Object e2) {
+		if (comparator != null)
+			return comparator.compare((E)e1, (E)e2);
+		Comparable<E> c1 = (Comparable<E>)e1;
+		return c1.compareTo((E)e2);
+	}
+	/**
+	 * 关键字是否超出节点的上界，超出则需要沿着right继续查找。
+	 */
+	private boolean beyond(Node<E> p, Object key) {
+		Object high = p.highKey;
+		return high != null && cmp(key, high) >= 0;
+	}
+	/**
+	 * 从根节点乐观地向下查找，直到level层中覆盖key的节点，不加锁。
+	 * @param key 需要查找的关键字
+	 * @param level 目标层，叶子为0
+	 * @param path 若不为null，记录经过的每一层的节点，用于分裂时找到父亲节点
+	 * @return level层中覆盖key的节点（返回后该节点可能已经分裂，加锁后需要再向右移动）
+	 */
+	private Node<E> descend(Object key, int level, Node<E>[] path) {
+		Node<E> p = root;
+		while (p.level > level) {
+			long stamp = p.lock.tryOptimisticRead();
+			if (stamp == 0) { // 正在被修改
+				Thread.yield();
+				continue;
+			}
+			Node<E> next;
+			boolean moveRight = beyond(p, key);
+			if (moveRight) {
+				next = p.right;
+			} else {
+				int index = p.childIndex(key);
+				next = index < 0 ? null : p.children[index];
+			}
+			if (next == null || !p.lock.validate(stamp))
+				continue; // 读到了不一致的数据，重读该节点
+			if (!moveRight && path != null && p.level < path.length)
+				path[p.level] = p;
+			p = next;
+		}
+		return p;
+	}
+	/**
+	 * 加写锁后沿着right移动，直到节点覆盖key，返回时持有该节点的写锁。
+	 */
+	private Node<E> lockCovering(Node<E> p, Object key) {
+		p.stamp = p.lock.writeLock();
+		while (beyond(p, key)) {
+			Node<E> right = p.right;
+			right.stamp = right.lock.writeLock();
+			p.unlock();
+			p = right;
+		}
+		return p;
+	}
+	/**
+	 * 检测关键字是否在树中，不加锁。
+	 * @param key 需要检测的关键字。
+	 * @return 存在返回true，否则返回false
+	 */
+	public boolean contains(E key) {
+		if (key == null)
+			return false;
+		Node<E> p = descend(key, 0, null);
+		while (true) {
+			long stamp = p.lock.tryOptimisticRead();
+			if (stamp == 0) {
+				Thread.yield();
+				continue;
+			}
+			Node<E> right = p.right;
+			boolean moveRight = beyond(p, key);
+			int index = moveRight ? 0 : p.binarySearch(key);
+			if (index == Node.INCONSISTENT || !p.lock.validate(stamp))
+				continue;
+			if (!moveRight)
+				return index >= 0;
+			p = right;
+		}
+	}
+	/**
+	 * 插入关键字key到树中。
+	 * @param key 待插入的关键字。
+	 * @return 若已经存在关键字，则插入失败，返回false， 否则返回true。
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public boolean add(E key) {
+		if (key == null) {
+			return false;
+		}
+		Node<E> top = root;
+		Node<E>[] path = new Node[top.level + 1];
+		Node<E> leaf = lockCovering(descend(key, 0, path), key);
+		int index = leaf.binarySearch(key);
+		if (index >= 0) {
+			leaf.unlock();
+			return false;
+		}
+		leaf.insertAt(-index - 1, key, null);
+		totalSize.increment();
+		if (leaf.size <= MAX_KEYS) {
+			leaf.unlock();
+			return true;
+		}
+		split(leaf, path);
+		return true;
+	}
+	/**
+	 * 分裂已经加锁的节点p，然后把分隔符插入父亲节点，父亲节点满了继续分裂。
+	 * 返回时所有的锁都已经释放。
+	 * @param p 关键字数量超过最大值的节点，持有写锁
+	 * @param path 查找时记录的每一层节点
+	 */
+	private void split(Node<E> p, Node<E>[] path) {
+		while (true) {
+			Node<E> right = new Node<E>(p.level, order);
+			Object separator;
+			int mid = p.size >>> 1;
+			if (p.isLeaf) { // 叶子分裂，右节点的第一个关键字作为分隔符
+				right.size = p.size - mid;
+				System.arraycopy(p.keys, mid, right.keys, 0, right.size);
+				separator = right.keys[0];
+			} else { // 内部节点分裂，中间关键字上移
+				separator = p.keys[mid];
+				right.size = p.size - mid - 1;
+				System.arraycopy(p.keys, mid + 1, right.keys, 0, right.size);
+				System.arraycopy(p.children, mid + 1, right.children, 0, right.size + 1);
+				Arrays.fill(p.children, mid + 1, p.size + 1, null);
+			}
+			Arrays.fill(p.keys, mid, p.size, null);
+			right.right = p.right;
+			right.highKey = p.highKey;
+			// 右节点构造完成后再链接到p，保证并发的查找通过right总能找到移走的关键字
+			p.right = right;
+			p.highKey = separator;
+			p.size = mid;
+			if (p == root) { // 根节点分裂，树长高一层
+				Node<E> newRoot = new Node<E>(p.level + 1, order);
+				newRoot.keys[0] = separator;
+				newRoot.children[0] = p;
+				newRoot.children[1] = right;
+				newRoot.size = 1;
+				root = newRoot;
+				p.unlock();
+				return;
+			}
+			Node<E> parent = p.level + 1 < path.length ? path[p.level + 1] : null;
+			if (parent == null) { // 查找之后根节点长高了，重新查找父亲节点
+				parent = descend(separator, p.level + 1, null);
+			}
+			parent = lockCovering(parent, separator);
+			p.unlock();
+			int index = parent.childIndex(separator);
+			parent.insertAt(index, separator, right);
+			if (parent.size <= MAX_KEYS) {
+				parent.unlock();
+				return;
+			}
+			p = parent;
+		}
+	}
+	/**
+	 * 把指定容器的所有元素加入到树中。
+	 * @param c 指定的容器，容器的元素将加入到此树中。
+	 * @return 若调用此方法引起了树的改变，返回true，否则返回false
+	 */
+	public boolean addAll(Collection<? extends E> c) {
+		boolean isModify = false;
+		for (E e : c) {
+			isModify |= add(e);
+		}
+		return isModify;
+	}
+	/**
+	 * 从树中删除指定的元素，只锁住所在的叶子，不合并节点。
+	 * @param key 需要删除的元素
+	 * @return 如果该元素存在，删除之，返回true，否则返回false
+	 */
+	public boolean remove(E key) {
+		if (key == null) {
+			return false;
+		}
+		Node<E> leaf = lockCovering(descend(key, 0, null), key);
+		int index = leaf.binarySearch(key);
+		if (index >= 0) {
+			leaf.deleteAt(index);
+			totalSize.decrement();
+		}
+		leaf.unlock();
+		return index >= 0;
+	}
+	/**
+	 * 返回关键字的数量，存在并发修改时是一个近似值。
+	 * @return 关键字数量。
+	 */
+	public int size() {
+		return totalSize.intValue();
+	}
+	/**
+	 * 判断树是否为空
+	 * @return 如果树为空，返回true，否则返回false
+	 */
+	public boolean isEmpty() {
+		return totalSize.sum() == 0;
+	}
+	/**
+	 * 返回树的阶
+	 * @return 树的阶
+	 */
+	public int getOrder() {
+		return this.order;
+	}
+	/**
+	 * 返回树的高度，高度从1开始。
+	 * @return 树的高度。
+	 */
+	public int getHeight() {
+		return root.level + 1;
+	}
+	/**
+	 * 返回按关键字递增顺序的弱一致性迭代器，迭代过程中不会抛出ConcurrentModificationException，
+	 * 也不会阻塞写操作，迭代器创建之后的修改可能可见也可能不可见。
+	 */
+	@Override
+	public Iterator<E> iterator() {
+		return new Iter();
+	}
+	private class Iter implements Iterator<E> {
+		Node<E> leaf;
+		Object[] buffer = new Object[order];
+		int count;
+		int cursor;
+		E lastRet;
+		/**
+		 * lastRet还要作为advance跳过已读关键字的依据，不能清空，用该标志防止重复删除。
+		 */
+		boolean removed;
+		Iter() {
+			Node<E> p = root;
+			while (!p.isLeaf) {
+				long stamp = p.lock.tryOptimisticRead();
+				Node<E> first = p.children[0];
+				if (stamp != 0 && first != null && p.lock.validate(stamp))
+					p = first;
+			}
+			leaf = p;
+			advance();
+		}
+		/**
+		 * 乐观地拷贝下一个非空叶子的关键字，跳过不大于上一次返回值的关键字
+		 * （叶子在两次读取之间分裂时，右节点中的关键字可能已经读过）。
+		 */
+		private void advance() {
+			while (cursor >= count && leaf != null) {
+				long stamp = leaf.lock.tryOptimisticRead();
+				if (stamp == 0) {
+					Thread.yield();
+					continue;
+				}
+				int n = Math.min(leaf.size, buffer.length);
+				System.arraycopy(leaf.keys, 0, buffer, 0, n);
+				Node<E> next = leaf.right;
+				if (!leaf.lock.validate(stamp))
+					continue;
+				count = n;
+				cursor = 0;
+				while (cursor < count && lastRet != null && cmp(buffer[cursor], lastRet) <= 0)
+					cursor++;
+				leaf = next;
+			}
+		}
+		@Override
+		public boolean hasNext() {
+			return cursor < count;
+		}
+		@SuppressWarnings("unchecked")
+		@Override
+		public E next() {
+			if (cursor >= count)
+				throw new NoSuchElementException();
+			lastRet = (E)buffer[cursor++];
+			removed = false;
+			advance();
+			return lastRet;
+		}
+		@Override
+		public void remove() {
+			if (lastRet == null || removed)
+				throw new IllegalStateException();
+			ConcurrentBTree.this.remove(lastRet);
+			removed = true;
+		}
+	}
+	/**
+	 * B-link树节点。非final字段只能在持有写锁时修改；乐观读时可能读到不一致的数据，
+	 * 使用前必须校验版本号。
+	 * @author fgp
+	 *
+	 * @param <T> 节点存储关键字的类型。
+	 */
+	final class Node<T> {
+		static final int INCONSISTENT = Integer.MIN_VALUE;
+		final StampedLock lock = new StampedLock();
+		final int level;
+		final boolean isLeaf;
+		final Object[] keys;
+		final Node<T>[] children;
+		int size;
+		Node<T> right;
+		Object highKey; // 节点中所有关键字都小于highKey，null表示无穷大
+		long stamp; // 持有写锁时的stamp
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Node(int level, int order) {
+			this.level = level;
+			this.isLeaf = level == 0;
+			this.keys = new Object[order];
+			this.children = isLeaf ? null : new Node[order + 1];
+		}
+		void unlock() {
+			lock.unlockWrite(stamp);
+		}
+		/**
+		 * 在内部二分查找关键字，乐观读时可能读到被清空的位置，此时返回INCONSISTENT。
+		 * @param key 需要查找的关键字。
+		 * @return 若关键字存在，返回位置。否则不存在，假设插入的位置为i，则返回-(i + 1).
+		 */
+		int binarySearch(Object key) {
+			int low = 0;
+			int high = Math.min(size, keys.length) - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				Object midVal = keys[mid];
+				if (midVal == null)
+					return INCONSISTENT;
+				int cmp = cmp(key, midVal);
+				if (cmp == 0)
+					return mid;
+				if (cmp < 0) {
+					high = mid - 1;
+				} else {
+					low = mid + 1;
+				}
+			}
+			return -(low + 1);
+		}
+		/**
+		 * 返回关键字所在的孩子位置，等于分隔符的关键字位于右子树。
+		 * @return 孩子位置，读到不一致的数据时返回-1
+		 */
+		int childIndex(Object key) {
+			int index = binarySearch(key);
+			if (index == INCONSISTENT)
+				return -1;
+			return index >= 0 ? index + 1 : -index - 1;
+		}
+		/**
+		 * 在index处插入关键字，若是内部节点，right作为该关键字的右孩子。
+		 */
+		void insertAt(int index, Object key, Node<T> right) {
+			System.arraycopy(keys, index, keys, index + 1, size - index);
+			keys[index] = key;
+			if (!isLeaf) {
+				System.arraycopy(children, index + 1, children, index + 2, size - index);
+				children[index + 1] = right;
+			}
+			size++;
+		}
+		void deleteAt(int index) {
+			System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+			keys[--size] = null;
+		}
+		@Override
+		public String toString() {
+			if (size == 0)
+				return "[]";
+			StringBuilder sb = new StringBuilder("[");
+			for (int i = 0; i < size; ++i) {
+				sb.append(keys[i] + ",");
+			}
+			sb.deleteCharAt(sb.length() - 1);
+			sb.append(']');
+			return sb.toString();
+		}
+	}
+}
@@ -0,0 +1,59 @@
+import java.nio.ByteBuffer;
+
+/**
+ * 定长关键字的序列化器，用于把关键字写入页面或者从页面读取。
+ * @author fgp
+ *
+ * @param <K> 关键字类型。
+ */
+public interface KeySerializer<K> {
+	/**
+	 * 返回序列化后关键字占用的字节数，所有关键字长度必须相同。
+	 * @return 关键字占用的字节数
+	 */
+	int size();
+	/**
+	 * 把关键字写入buffer的offset位置。
+	 * @param buffer 目标buffer
+	 * @param offset 写入的位置
+	 * @param key 需要写入的关键字
+	 */
+	void write(ByteBuffer buffer, int offset, K key);
+	/**
+	 * 从buffer的offset位置读取关键字。
+	 * @param buffer 源buffer
+	 * @param offset 读取的位置
+	 * @return 读取的关键字
+	 */
+	K read(ByteBuffer buffer, int offset);
+
+	KeySerializer<Long> LONG = new KeySerializer<Long>() {
+		@Override
+		public int size() {
+			return 8;
+		}
+		@Override
+		public void write(ByteBuffer buffer, int offset, Long key) {
+			buffer.putLong(offset, key);
+		}
+		@Override
+		public Long read(ByteBuffer buffer, int offset) {
+			return buffer.getLong(offset);
+		}
+	};
+
+	KeySerializer<Integer> INTEGER = new KeySerializer<Integer>() {
+		@Override
+		public int size() {
+			return 4;
+		}
+		@Override
+		public void write(ByteBuffer buffer, int offset, Integer key) {
+			buffer.putInt(offset, key);
+		}
+		@Override
+		public Integer read(ByteBuffer buffer, int offset) {
+			return buffer.getInt(offset);
+		}
+	};
+}
@@ -0,0 +1,596 @@
+import java.util.*;
+
+/**
+ * 关键字为long的B-tree，实现查询、插入、删除。
+ * 与BTree<Long>不同，每个节点的关键字直接存放在long[]中，不需要装箱，
+ * 比较时也不需要通过Comparator间接调用，查找时关键字连续存放，缓存更友好。
+ * @author fgp
+ *
+ */
+public class LongBTree implements Iterable<Long> {
+	private Node root;
+	private final int MAX_KEYS;
+	private final int MIN_KEYS;
+	private final int order;
+	private int height;
+	private int totalSize;
+	private int modCount;
+	/**
+	 * 创建一个m阶B树。
+	 * @param order B树的阶。
+	 */
+	public LongBTree(int order) {
+		if (order < 3) {
+			throw new IllegalArgumentException("The order of B-tree should be larger than 2");
+		}
+		this.order = order;
+		this.MAX_KEYS = order - 1;
+		this.MIN_KEYS = (order + 1) / 2 - 1;
+		this.height = 0;
+		this.totalSize = 0;
+	}
+	/**
+	 * 检测关键字是否在B-tree中
+	 * @param key 需要检测的关键字。
+	 * @return 存在返回true，否则返回false
+	 */
+	public boolean contains(long key) {
+		Node p = root;
+		while (p != null) {
+			int index = p.binarySearch(key);
+			if (index >= 0)
+				return true;
+			if (p.isLeaf)
+				return false;
+			p = p.children[-index - 1];
+		}
+		return false;
+	}
+	/**
+	 * 当且仅当指定数组的元素全都在此树中，返回true，否则返回false。
+	 * @param keys 指定的关键字数组。
+	 * @return 若数组的所有元素都在此树中，返回true，否则返回false。
+	 */
+	public boolean containsAll(long... keys) {
+		for (long key : keys) {
+			if (!contains(key))
+				return false;
+		}
+		return true;
+	}
+	/**
+	 * 插入关键字key到B-tree中。
+	 * @param key 待插入的关键字。
+	 * @return 若已经存在关键字，则插入失败，返回false， 否则返回true。
+	 */
+	public boolean add(long key) {
+		if (root == null) {
+			root = new Node();
+			this.height = 1;
+			this.totalSize = 0;
+		}
+		boolean inserted = insert(key, root);
+		if (inserted) {
+			++totalSize;
+			++modCount;
+			return true;
+		} else {
+			return false;
+		}
+	}
+	/**
+	 * 把关键字key插入到合适的位置，只能插入到叶子中。
+	 * @param key 待插入的关键字。
+	 * @param p 需要插入的子树。
+	 * @return 若关键字已经存在，插入失败，返回false，否则成功插入，返回true。
+	 */
+	private boolean insert(long key, Node p) {
+		while (!p.isLeaf) {
+			int index = p.insertIndex(key);
+			if (index < 0)
+				return false;
+			p = p.children[index];
+		}
+		boolean inserted = p.insertToLeaf(key) >= 0;
+		if (p.size > MAX_KEYS) {
+			split(p);
+		}
+		return inserted;
+	}
+	/**
+	 * 节点关键字数量超过最大数量，需要分裂。
+	 * @param p 需要分裂的节点。
+	 */
+	private void split(Node p) {
+		Node parent = p.parent;
+		if (parent == null) { // parent为null，即当前节点为root，需要上升高度
+			parent = new Node();
+			parent.isLeaf = false;
+			root = parent;
+			height++;
+			parent.children = new Node[order + 1];
+		}
+		int mid = (p.size - 1) >>> 1;
+		Node left = new Node();
+		Node right = p;
+		left.isLeaf = p.isLeaf;
+		if (!left.isLeaf) {
+			left.children = new Node[order + 1];
+			for (int i = 0; i <= mid; ++i) {
+				p.children[i].parent = left;
+			}
+		}
+		parent.insertToNonLeaf(p.keys[mid], left, right); // 把中间节点插入父节点。
+		System.arraycopy(right.keys, 0, left.keys, 0, mid);
+		if (!left.isLeaf) {
+			System.arraycopy(right.children, 0, left.children, 0, mid + 1);
+		}
+		left.size = mid;
+		int rest = right.size - mid - 1;
+		System.arraycopy(right.keys, mid + 1, right.keys, 0, rest);
+		if (!right.isLeaf) {
+			System.arraycopy(right.children, mid + 1, right.children, 0, rest + 1);
+			Arrays.fill(right.children, rest + 1, right.children.length, null);
+		}
+		right.size = rest;
+		left.parent = parent;
+		right.parent = parent;
+		if (parent.size > MAX_KEYS)
+			split(parent);
+	}
+	/**
+	 * 把指定数组的所有元素加入到树中。
+	 * @param keys 指定的关键字数组。
+	 * @return 若调用此方法引起了B-tree的改变，返回true，否则返回false
+	 */
+	public boolean addAll(long... keys) {
+		boolean isModify = false;
+		for (long key : keys) {
+			isModify |= add(key);
+		}
+		return isModify;
+	}
+	/**
+	 * 从B-tree中删除指定的关键字
+	 * @param key 需要删除的关键字
+	 * @return 如果该关键字存在，删除之，返回true，否则返回false
+	 */
+	public boolean remove(long key) {
+		if (root == null) {
+			return false;
+		}
+		boolean isRemoved = remove(key, root);
+		if (isRemoved) {
+			--totalSize;
+			++modCount;
+		}
+		return isRemoved;
+	}
+	/**
+	 * 把指定数组的所有元素从此树中删除。
+	 * @param keys 指定的关键字数组。
+	 * @return 若调用次方法引起了此树的改变，返回true，否则返回false。
+	 */
+	public boolean removeAll(long... keys) {
+		boolean isModify = false;
+		for (long key : keys)
+			isModify |= remove(key);
+		return isModify;
+	}
+	private boolean remove(long key, Node p) {
+		int index;
+		while (true) {
+			index = p.binarySearch(key);
+			if (index >= 0)
+				break;
+			if (p.isLeaf)
+				return false;
+			p = p.children[-index - 1];
+		}
+		if (p.isLeaf) { // 删除的关键字在叶子节点中，直接删除，然后重新调整
+			p.deleteAt(index);
+			if (p.size < MIN_KEYS) {
+				rebalancingAfterDeletion(p);
+			}
+			return true;
+		}
+		// 删除的是内部节点，寻找左子树最大关键字作为新分隔符替换删除的关键字。
+		Node leftLeaf = p.children[index];
+		while (!leftLeaf.isLeaf) {
+			leftLeaf = leftLeaf.children[leftLeaf.size];
+		}
+		p.keys[index] = leftLeaf.keys[leftLeaf.size - 1];
+		leftLeaf.size--;
+		if (leftLeaf.size < MIN_KEYS) {
+			rebalancingAfterDeletion(leftLeaf);
+		}
+		return true;
+	}
+	/**
+	 * 判断p是第几个儿子
+	 * @param p 需要判断的节点
+	 * @return 如果p没有父亲，即他是根节点，返回-1
+	 */
+	private int rankInChildren(Node p) {
+		Node parent = p.parent;
+		if (parent == null) {
+			return -1;
+		}
+		int i;
+		for (i = 0; i <= parent.size; ++i) {
+			if (parent.children[i] == p)
+				break;
+		}
+		return i;
+	}
+	/**
+	 * 左旋转，从右兄弟借一个关键字。
+	 * @param p 贫困节点
+	 * @param myRank p是第几个儿子
+	 */
+	private void leftRotate(Node p, int myRank) {
+		Node parent = p.parent;
+		Node right = parent.children[myRank + 1];
+		p.keys[p.size] = parent.keys[myRank];
+		p.size++;
+		parent.keys[myRank] = right.keys[0];
+		System.arraycopy(right.keys, 1, right.keys, 0, right.size - 1);
+		if (!right.isLeaf) {
+			Node child = right.children[0];
+			System.arraycopy(right.children, 1, right.children, 0, right.size);
+			right.children[right.size] = null;
+			child.parent = p;
+			p.children[p.size] = child;
+		}
+		right.size--;
+	}
+	/**
+	 * 右旋转，从左兄弟借一个关键字。
+	 * @param p 贫困节点
+	 * @param myRank p是第几个儿子
+	 */
+	private void rightRotate(Node p, int myRank) {
+		Node parent = p.parent;
+		Node left = parent.children[myRank - 1];
+		System.arraycopy(p.keys, 0, p.keys, 1, p.size);
+		p.keys[0] = parent.keys[myRank - 1];
+		if (!p.isLeaf) {
+			System.arraycopy(p.children, 0, p.children, 1, p.size + 1);
+			Node child = left.children[left.size];
+			left.children[left.size] = null;
+			child.parent = p;
+			p.children[0] = child;
+		}
+		p.size++;
+		parent.keys[myRank - 1] = left.keys[left.size - 1];
+		left.size--;
+	}
+	/**
+	 * 合并操作，把右节点和分隔符合并到左节点中。
+	 * @param left 左节点
+	 * @param right 右节点
+	 * @param leftRank 左节点是第几个儿子
+	 */
+	private void merge(Node left, Node right, int leftRank) {
+		Node parent = left.parent;
+		// 把父亲节点的分隔符下移到左节点
+		left.keys[left.size++] = parent.keys[leftRank];
+		// 从父亲节点中删除分隔符和右节点
+		System.arraycopy(parent.keys, leftRank + 1, parent.keys, leftRank, parent.size - leftRank - 1);
+		System.arraycopy(parent.children, leftRank + 2, parent.children, leftRank + 1, parent.size - leftRank - 1);
+		parent.children[parent.size] = null;
+		parent.size--;
+		// 拷贝右节点到左节点
+		System.arraycopy(right.keys, 0, left.keys, left.size, right.size);
+		if (!left.isLeaf) {
+			for (int i = 0; i <= right.size; ++i) {
+				right.children[i].parent = left;
+				left.children[left.size + i] = right.children[i];
+			}
+		}
+		left.size += right.size;
+		if (parent.size < MIN_KEYS) {
+			if (parent.size == 0 && parent == root) {
+				root = left;
+				root.parent = null;
+				height--;
+			} else {
+				rebalancingAfterDeletion(parent);
+			}
+		}
+	}
+	private void rebalancingAfterDeletion(Node p) {
+		if (p == root) {
+			return;
+		}
+		Node parent = p.parent;
+		int myRank = rankInChildren(p);
+		if (myRank < parent.size && parent.children[myRank + 1].size > MIN_KEYS) { // 右兄弟富裕，左旋转
+			leftRotate(p, myRank);
+		} else if (myRank > 0 && parent.children[myRank - 1].size > MIN_KEYS) { // 左兄弟富裕，右旋转
+			rightRotate(p, myRank);
+		} else if (myRank < parent.size) {
+			merge(p, parent.children[myRank + 1], myRank);
+		} else {
+			merge(parent.children[myRank - 1], p, myRank - 1);
+		}
+	}
+	public void print() {
+		print(root);
+	}
+	private void print(Node p) {
+		if (p == null)
+			return;
+		System.out.println(p);
+		if (!p.isLeaf) {
+			for (int i = 0; i <= p.size; ++i) {
+				print(p.children[i]);
+			}
+		}
+	}
+	/**
+	 * 把B-tree的关键字转化成有序数组。
+	 * @return 转化后的数组，数组包含所有关键字。
+	 */
+	public long[] toArray() {
+		long[] values = new long[totalSize];
+		int i = 0;
+		for (PrimitiveIterator.OfLong iter = iterator(); iter.hasNext();) {
+			values[i++] = iter.nextLong();
+		}
+		return values;
+	}
+	/**
+	 * 返回B树的阶
+	 * @return B树的阶
+	 */
+	public int getOrder() {
+		return this.order;
+	}
+	/**
+	 * 返回B树的高度，高度从1开始。
+	 * @return B树的高度。
+	 */
+	public int getHeight() {
+		if (isEmpty()) {
+			return 0;
+		}
+		return this.height;
+	}
+	/**
+	 * 返回关键字的数量
+	 * @return 关键字数量。
+	 */
+	public int size() {
+		return this.totalSize;
+	}
+	/**
+	 * 判断该B树是否为空
+	 * @return 如果B树为空，返回true，否则返回false
+	 */
+	public boolean isEmpty() {
+		return totalSize == 0;
+	}
+	/**
+	 * 返回B树一个节点能够容纳的最大关键字数量，等于阶数-1
+	 * @return B树一个节点能够容纳的最大关键字数量。
+	 */
+	public int getMaxKeys() {
+		return this.MAX_KEYS;
+	}
+	/**
+	 * 返回B树除了根节点以外其余任意一个节点最少的关键字数量。等于「阶数/2」-1
+	 * @return B树除了根节点以外其余任意一个节点最少的关键字数量
+	 */
+	public int getMinKeys() {
+		return this.MIN_KEYS;
+	}
+	public void clear() {
+		this.totalSize = 0;
+		this.height = 0;
+		this.root = null;
+		this.modCount++;
+	}
+	/**
+	 * 返回按关键字递增顺序的迭代器，使用nextLong()可以避免装箱。
+	 */
+	@Override
+	public PrimitiveIterator.OfLong iterator() {
+		return new Iter();
+	}
+	/**
+	 * 使用深度为树高的游标栈中序遍历，next不分配任何对象。
+	 */
+	private class Iter implements PrimitiveIterator.OfLong {
+		Node[] nodes = new Node[height];
+		int[] pos = new int[height];
+		int depth = -1;
+		int expectedModCount = modCount;
+		long lastRet;
+		boolean canRemove;
+		Iter() {
+			if (root != null && totalSize > 0) {
+				push(root, 0);
+				descendLeftmost();
+				normalize();
+			}
+		}
+		private void push(Node p, int index) {
+			++depth;
+			nodes[depth] = p;
+			pos[depth] = index;
+		}
+		/**
+		 * 从栈顶节点的当前孩子开始一直往左走到叶子。
+		 */
+		private void descendLeftmost() {
+			Node p = nodes[depth];
+			while (!p.isLeaf) {
+				p = p.children[pos[depth]];
+				push(p, 0);
+			}
+		}
+		/**
+		 * 弹出已经遍历完的节点，使栈顶指向下一个关键字。
+		 */
+		private void normalize() {
+			while (depth >= 0 && pos[depth] >= nodes[depth].size) {
+				nodes[depth--] = null;
+			}
+		}
+		/**
+		 * 把游标定位到第一个大于等于key的关键字。
+		 */
+		private void seek(long key) {
+			if (nodes.length < height) {
+				nodes = new Node[height];
+				pos = new int[height];
+			}
+			while (depth >= 0)
+				nodes[depth--] = null;
+			Node p = root;
+			while (p != null) {
+				int index = p.binarySearch(key);
+				if (index >= 0) {
+					push(p, index);
+					break;
+				}
+				push(p, -index - 1);
+				if (p.isLeaf)
+					break;
+				p = p.children[-index - 1];
+			}
+			normalize();
+		}
+		@Override
+		public boolean hasNext() {
+			return depth >= 0;
+		}
+		@Override
+		public long nextLong() {
+			checkForComodification();
+			if (depth < 0)
+				throw new NoSuchElementException();
+			Node p = nodes[depth];
+			lastRet = p.keys[pos[depth]];
+			pos[depth]++;
+			if (!p.isLeaf) {
+				descendLeftmost();
+			}
+			normalize();
+			canRemove = true;
+			return lastRet;
+		}
+		@Override
+		public void remove() {
+			if (!canRemove) {
+				throw new IllegalStateException();
+			}
+			checkForComodification();
+			LongBTree.this.remove(lastRet);
+			canRemove = false;
+			expectedModCount = modCount;
+			seek(lastRet);
+		}
+		final void checkForComodification() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+		}
+	}
+	/**
+	 * B-tree树节点，关键字直接存放在long数组中。
+	 * @author fgp
+	 *
+	 */
+	final class Node {
+		long[] keys;
+		Node[] children;
+		Node parent;
+		boolean isLeaf;
+		int size;
+		Node() {
+			this.keys = new long[order];
+			this.isLeaf = true;
+			this.size = 0;
+		}
+		/**
+		 * 在内部二分查找关键字。
+		 * @param key 需要查找的关键字。
+		 * @return 若关键字存在，返回位置。否则不存在，假设插入的位置为i，则返回-(i + 1).
+		 */
+		int binarySearch(long key) {
+			int low = 0;
+			int high = size - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				long midVal = keys[mid];
+				if (midVal < key) {
+					low = mid + 1;
+				} else if (midVal > key) {
+					high = mid - 1;
+				} else {
+					return mid;
+				}
+			}
+			return -(low + 1);
+		}
+		/**
+		 * 返回关键字插入的位置，但并不实际插入。
+		 * @param key 需要插入的关键字。
+		 * @return 若关键字不存在，返回插入的位置， 否则返回关键字的位置的相反数。
+		 */
+		int insertIndex(long key) {
+			return -binarySearch(key) - 1;
+		}
+		/**
+		 * 插入关键字key到叶子中，不需要更新孩子
+		 * @param key 需要插入的关键字key
+		 * @return 关键字不存在，则插入并返回插入的位置，否则返回已经存在的位置的相反数。
+		 */
+		int insertToLeaf(long key) {
+			int index = insertIndex(key);
+			if (index < 0)
+				return index;
+			System.arraycopy(keys, index, keys, index + 1, size - index);
+			keys[index] = key;
+			++size;
+			return index;
+		}
+		/**
+		 * 插入关键字到非叶子节点中，孩子分裂后的左右两个子树分别作为关键字的左右孩子。
+		 * @param key 需要插入的关键字
+		 * @param left 孩子分裂后的左子树。
+		 * @param right 孩子分裂后的右子树。
+		 * @return 若关键字不存在，返回插入的位置。若关键字存在，返回关键字位置的相反数。
+		 */
+		int insertToNonLeaf(long key, Node left, Node right) {
+			int index = insertIndex(key);
+			if (index < 0)
+				return index;
+			System.arraycopy(keys, index, keys, index + 1, size - index);
+			System.arraycopy(children, index + 1, children, index + 2, size - index);
+			children[index] = left;
+			children[index + 1] = right;
+			keys[index] = key;
+			size++;
+			return index;
+		}
+		void deleteAt(int index) {
+			System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+			this.size--;
+		}
+		@Override
+		public String toString() {
+			if (size == 0)
+				return "[]";
+			StringBuilder sb = new StringBuilder("[");
+			for (int i = 0; i < size; ++i) {
+				sb.append(keys[i]).append(',');
+			}
+			sb.deleteCharAt(sb.length() - 1);
+			sb.append(']');
+			return sb.toString();
+		}
+	}
+}
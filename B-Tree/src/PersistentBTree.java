@@ -0,0 +1,648 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * 基于内存映射文件的持久化B-tree。
+ * 树由固定大小的页面组成，每个节点占一个页面，阶数由页面大小和关键字长度计算得到。
+ * 页面通过MappedByteBuffer访问，数据不占用Java堆，重新打开文件即可使用，不需要重建索引。
+ * 关键字通过KeySerializer定长序列化，需要实现Comparable接口或者传递Comparator。
+ * 此类不是线程安全的。
+ * @author fgp
+ *
+ * @param <K> 关键字类型。
+ */
+public class PersistentBTree<K> implements Iterable<K>, Closeable {
+	public static final int DEFAULT_PAGE_SIZE = 4096;
+	private static final int MAGIC = 0x42547265; // "BTre"
+	private static final int SEGMENT_SIZE = 1 << 26; // 每个映射段最大64MB
+	// 文件头（第0页）各字段偏移
+	private static final int H_MAGIC = 0;
+	private static final int H_PAGE_SIZE = 4;
+	private static final int H_KEY_SIZE = 8;
+	private static final int H_ROOT = 12;
+	private static final int H_HEIGHT = 16;
+	private static final int H_PAGE_COUNT = 20;
+	private static final int H_FREE_LIST = 24;
+	private static final int H_SIZE = 28;
+	// 节点页面各字段偏移
+	private static final int P_TYPE = 0;
+	private static final int P_SIZE = 4;
+	private static final int P_KEYS = 8;
+	private static final byte LEAF = 0;
+	private static final byte INTERNAL = 1;
+	private static final byte FREE = 2;
+
+	private final FileChannel channel;
+	private final List<MappedByteBuffer> segments = new ArrayList<>();
+	private final KeySerializer<K> serializer;
+	private final Comparator<K> comparator;
+	private final int pageSize;
+	private final int keySize;
+	private final int pagesPerSegment;
+	/**
+	 * 第一个段当前映射的页面数，按两倍增长直到pagesPerSegment。
+	 */
+	private int firstSegmentPages;
+	private final int childrenOffset;
+	private final int MAX_KEYS;
+	private final int MIN_KEYS;
+	private final int order;
+	private int modCount;
+
+	private PersistentBTree(FileChannel channel, int pageSize, KeySerializer<K> serializer, Comparator<K> comparator) {
+		this.channel = channel;
+		this.pageSize = pageSize;
+		this.serializer = serializer;
+		this.comparator = comparator;
+		this.keySize = serializer.size();
+		this.MAX_KEYS = (pageSize - P_KEYS - 4) / (keySize + 4);
+		if (MAX_KEYS < 2) {
+			throw new IllegalArgumentException("The page size is too small for the key size");
+		}
+		this.order = MAX_KEYS + 1;
+		this.MIN_KEYS = (order + 1) / 2 - 1;
+		this.childrenOffset = P_KEYS + MAX_KEYS * keySize;
+		this.pagesPerSegment = Math.max(1, SEGMENT_SIZE / pageSize);
+	}
+	/**
+	 * 打开或者创建一个持久化B-tree，页面大小为DEFAULT_PAGE_SIZE。
+	 * @param file 索引文件
+	 * @param serializer 关键字序列化器
+	 * @param comparator 关键字比较器，为null时使用关键字的自然顺序
+	 * @return 持久化B-tree
+	 * @throws IOException 文件读写失败或者文件不是有效的索引文件
+	 */
+	public static <K> PersistentBTree<K> open(Path file, KeySerializer<K> serializer, Comparator<K> comparator) throws IOException {
+		return open(file, DEFAULT_PAGE_SIZE, serializer, comparator);
+	}
+	/**
+	 * 打开或者创建一个持久化B-tree。若文件已经存在，页面大小以文件中记录的为准。
+	 * @param file 索引文件
+	 * @param pageSize 新建文件时使用的页面大小
+	 * @param serializer 关键字序列化器
+	 * @param comparator 关键字比较器，为null时使用关键字的自然顺序
+	 * @return 持久化B-tree
+	 * @throws IOException 文件读写失败或者文件不是有效的索引文件
+	 */
+	public static <K> PersistentBTree<K> open(Path file, int pageSize, KeySerializer<K> serializer, Comparator<K> comparator) throws IOException {
+		Objects.requireNonNull(serializer);
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			if (channel.size() == 0) {
+				PersistentBTree<K> tree = new PersistentBTree<>(channel, pageSize, serializer, comparator);
+				ByteBuffer header = tree.page(0);
+				header.putInt(H_MAGIC, MAGIC);
+				header.putInt(H_PAGE_SIZE, pageSize);
+				header.putInt(H_KEY_SIZE, serializer.size());
+				header.putInt(H_PAGE_COUNT, 1);
+				return tree;
+			}
+			ByteBuffer header = ByteBuffer.allocate(12);
+			channel.read(header, 0);
+			if (header.getInt(H_MAGIC) != MAGIC) {
+				throw new IOException("Not a B-tree file: " + file);
+			}
+			if (header.getInt(H_KEY_SIZE) != serializer.size()) {
+				throw new IOException("Key size mismatch, file uses " + header.getInt(H_KEY_SIZE) + " bytes");
+			}
+			return new PersistentBTree<>(channel, header.getInt(H_PAGE_SIZE), serializer, comparator);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	/**
+	 * 返回页面所在的buffer，页面在buffer中的偏移由offset()给出。
+	 */
+	private ByteBuffer page(int id) {
+		int segment = id / pagesPerSegment;
+		if (segment < segments.size() && (segment > 0 || id < firstSegmentPages)) {
+			return segments.get(segment);
+		}
+		return map(id);
+	}
+	/**
+	 * 映射页面id所在的段。映射会把文件扩展到映射的长度，所以第一个段从已有的页面数（新文件为1页）开始，
+	 * 不够时按两倍重新映射，直到SEGMENT_SIZE，之后的段每次映射SEGMENT_SIZE。
+	 * 重新映射后旧的buffer仍然映射同一个文件，已经取得的引用可以继续使用。
+	 */
+	private ByteBuffer map(int id) {
+		int segment = id / pagesPerSegment;
+		try {
+			int pages = segment > 0 ? pagesPerSegment : Math.min(pagesPerSegment, Math.max(id + 1, 2 * firstSegmentPages));
+			if (segments.isEmpty()) {
+				pages = (int)Math.max(pages, Math.min(pagesPerSegment, channel.size() / pageSize));
+			}
+			if (pages > firstSegmentPages) {
+				MappedByteBuffer first = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long)pages * pageSize);
+				if (segments.isEmpty()) {
+					segments.add(first);
+				} else {
+					segments.set(0, first);
+				}
+				firstSegmentPages = pages;
+			}
+			while (segment >= segments.size()) {
+				long position = (long)segments.size() * pagesPerSegment * pageSize;
+				segments.add(channel.map(FileChannel.MapMode.READ_WRITE, position, (long)pagesPerSegment * pageSize));
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Failed to map B-tree file", e);
+		}
+		return segments.get(segment);
+	}
+	private int offset(int id) {
+		return (id % pagesPerSegment) * pageSize;
+	}
+	private ByteBuffer header() {
+		return segments.isEmpty() ? page(0) : segments.get(0);
+	}
+	private int root() {
+		return header().getInt(H_ROOT);
+	}
+	private void setRoot(int root, int height) {
+		header().putInt(H_ROOT, root);
+		header().putInt(H_HEIGHT, height);
+	}
+	/**
+	 * 分配一个页面，优先从空闲链表中取。
+	 */
+	private int allocate() {
+		ByteBuffer header = header();
+		int id = header.getInt(H_FREE_LIST);
+		if (id != 0) {
+			header.putInt(H_FREE_LIST, page(id).getInt(offset(id) + P_SIZE));
+		} else {
+			id = header.getInt(H_PAGE_COUNT);
+			header.putInt(H_PAGE_COUNT, id + 1);
+		}
+		return id;
+	}
+	/**
+	 * 释放页面，放入空闲链表。
+	 */
+	private void free(int id) {
+		ByteBuffer header = header();
+		ByteBuffer buffer = page(id);
+		buffer.put(offset(id) + P_TYPE, FREE);
+		buffer.putInt(offset(id) + P_SIZE, header.getInt(H_FREE_LIST));
+		header.putInt(H_FREE_LIST, id);
+	}
+	@SuppressWarnings("unchecked")
+	private int cmp(K e1, K e2) {
+		if (comparator != null)
+			return comparator.compare(e1, e2);
+		Comparable<K> c1 = (Comparable<K>)e1;
+		return c1.compareTo(e2);
+	}
+	/**
+	 * 直接在页面上二分查找关键字，只反序列化比较到的关键字。
+	 * @return 若关键字存在，返回位置。否则不存在，假设插入的位置为i，则返回-(i + 1).
+	 */
+	private int binarySearch(int id, K key) {
+		ByteBuffer buffer = page(id);
+		int base = offset(id);
+		int low = 0;
+		int high = buffer.getInt(base + P_SIZE) - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = cmp(key, serializer.read(buffer, base + P_KEYS + mid * keySize));
+			if (cmp == 0)
+				return mid;
+			if (cmp < 0) {
+				high = mid - 1;
+			} else {
+				low = mid + 1;
+			}
+		}
+		return -(low + 1);
+	}
+	private boolean isLeaf(int id) {
+		return page(id).get(offset(id) + P_TYPE) == LEAF;
+	}
+	private int sizeOf(int id) {
+		return page(id).getInt(offset(id) + P_SIZE);
+	}
+	private K keyAt(int id, int index) {
+		return serializer.read(page(id), offset(id) + P_KEYS + index * keySize);
+	}
+	private int childAt(int id, int index) {
+		return page(id).getInt(offset(id) + childrenOffset + index * 4);
+	}
+	/**
+	 * 检测关键字是否在B-tree中
+	 * @param key 需要检测的关键字。
+	 * @return 存在返回true，否则返回false
+	 */
+	public boolean contains(K key) {
+		if (key == null)
+			return false;
+		int p = root();
+		while (p != 0) {
+			int index = binarySearch(p, key);
+			if (index >= 0)
+				return true;
+			if (isLeaf(p))
+				return false;
+			p = childAt(p, -index - 1);
+		}
+		return false;
+	}
+	/**
+	 * 插入关键字key到B-tree中。
+	 * @param key 待插入的关键字。
+	 * @return 若已经存在关键字，则插入失败，返回false， 否则返回true。
+	 */
+	public boolean add(K key) {
+		if (key == null) {
+			return false;
+		}
+		int root = root();
+		if (root == 0) {
+			root = allocate();
+			store(new Node(root, true));
+			setRoot(root, 1);
+		}
+		Split split = insert(root, key);
+		if (split == NOT_INSERTED)
+			return false;
+		if (split != null) { // 根节点分裂，树长高一层
+			Node newRoot = new Node(allocate(), false);
+			newRoot.children[0] = root;
+			newRoot.insertAt(0, split.key, split.right);
+			store(newRoot);
+			setRoot(newRoot.id, header().getInt(H_HEIGHT) + 1);
+		}
+		ByteBuffer header = header();
+		header.putLong(H_SIZE, header.getLong(H_SIZE) + 1);
+		++modCount;
+		return true;
+	}
+	/**
+	 * 节点分裂的结果，分隔符需要插入到父亲节点中，right是分裂出来的右节点页面。
+	 */
+	private static final class Split {
+		final Object key;
+		final int right;
+		Split(Object key, int right) {
+			this.key = key;
+			this.right = right;
+		}
+	}
+	private static final Split NOT_INSERTED = new Split(null, 0);
+	/**
+	 * 把关键字插入到子树中。
+	 * @return 没有分裂返回null，关键字已经存在返回NOT_INSERTED，否则返回分裂结果
+	 */
+	private Split insert(int id, K key) {
+		int index = binarySearch(id, key);
+		if (index >= 0)
+			return NOT_INSERTED;
+		index = -index - 1;
+		Node p = load(id);
+		if (p.isLeaf) {
+			p.insertAt(index, key, 0);
+		} else {
+			Split split = insert(p.children[index], key);
+			if (split == null || split == NOT_INSERTED)
+				return split;
+			p.insertAt(index, split.key, split.right);
+		}
+		if (p.size <= MAX_KEYS) {
+			store(p);
+			return null;
+		}
+		// 分裂，中间关键字作为分隔符返回给父亲节点
+		int mid = (p.size - 1) >>> 1;
+		Node right = new Node(allocate(), p.isLeaf);
+		right.size = p.size - mid - 1;
+		System.arraycopy(p.keys, mid + 1, right.keys, 0, right.size);
+		System.arraycopy(p.children, mid + 1, right.children, 0, right.size + 1);
+		p.size = mid;
+		store(p);
+		store(right);
+		return new Split(p.keys[mid], right.id);
+	}
+	/**
+	 * 从B-tree中删除指定的元素
+	 * @param key 需要删除的元素
+	 * @return 如果该元素存在，删除之，返回true，否则返回false
+	 */
+	public boolean remove(K key) {
+		int root = root();
+		if (key == null || root == 0) {
+			return false;
+		}
+		if (!delete(root, key))
+			return false;
+		if (!isLeaf(root) && sizeOf(root) == 0) { // 根节点只剩一个孩子，高度减一
+			int child = childAt(root, 0);
+			free(root);
+			setRoot(child, header().getInt(H_HEIGHT) - 1);
+		}
+		ByteBuffer header = header();
+		header.putLong(H_SIZE, header.getLong(H_SIZE) - 1);
+		++modCount;
+		return true;
+	}
+	private boolean delete(int id, K key) {
+		int index = binarySearch(id, key);
+		if (isLeaf(id)) {
+			if (index < 0)
+				return false;
+			Node p = load(id);
+			p.deleteAt(index);
+			store(p);
+			return true;
+		}
+		int child;
+		if (index >= 0) {
+			// 删除的是内部节点，用左子树最大的关键字替换，然后从左子树中删除它。
+			int leaf = childAt(id, index);
+			while (!isLeaf(leaf)) {
+				leaf = childAt(leaf, sizeOf(leaf));
+			}
+			K candidate = keyAt(leaf, sizeOf(leaf) - 1);
+			serializer.write(page(id), offset(id) + P_KEYS + index * keySize, candidate);
+			key = candidate;
+			child = index;
+		} else {
+			child = -index - 1;
+		}
+		if (!delete(childAt(id, child), key))
+			return false;
+		if (sizeOf(childAt(id, child)) < MIN_KEYS) {
+			rebalance(load(id), child);
+		}
+		return true;
+	}
+	/**
+	 * 第index个孩子贫困后调整，先尝试从兄弟借，否则与兄弟合并。
+	 * @param parent 父亲节点
+	 * @param index 贫困孩子的位置
+	 */
+	private void rebalance(Node parent, int index) {
+		Node p = load(parent.children[index]);
+		Node right = index < parent.size ? load(parent.children[index + 1]) : null;
+		if (right != null && right.size > MIN_KEYS) { // 右兄弟富裕，左旋转
+			p.keys[p.size] = parent.keys[index];
+			p.children[p.size + 1] = right.children[0];
+			p.size++;
+			parent.keys[index] = right.keys[0];
+			System.arraycopy(right.keys, 1, right.keys, 0, right.size - 1);
+			System.arraycopy(right.children, 1, right.children, 0, right.size);
+			right.size--;
+			store(p);
+			store(right);
+			store(parent);
+			return;
+		}
+		Node left = index > 0 ? load(parent.children[index - 1]) : null;
+		if (left != null && left.size > MIN_KEYS) { // 左兄弟富裕，右旋转
+			System.arraycopy(p.keys, 0, p.keys, 1, p.size);
+			System.arraycopy(p.children, 0, p.children, 1, p.size + 1);
+			p.keys[0] = parent.keys[index - 1];
+			p.children[0] = left.children[left.size];
+			p.size++;
+			parent.keys[index - 1] = left.keys[left.size - 1];
+			left.size--;
+			store(p);
+			store(left);
+			store(parent);
+			return;
+		}
+		if (right != null) {
+			merge(parent, p, right, index);
+		} else {
+			merge(parent, left, p, index - 1);
+		}
+	}
+	/**
+	 * 把分隔符和右节点合并到左节点，释放右节点页面。
+	 */
+	private void merge(Node parent, Node left, Node right, int index) {
+		left.keys[left.size] = parent.keys[index];
+		System.arraycopy(right.keys, 0, left.keys, left.size + 1, right.size);
+		System.arraycopy(right.children, 0, left.children, left.size + 1, right.size + 1);
+		left.size += right.size + 1;
+		parent.deleteAt(index);
+		store(left);
+		store(parent);
+		free(right.id);
+	}
+	/**
+	 * 把页面读入堆中的临时节点，节点多预留一个位置用于先插入再分裂。
+	 */
+	private Node load(int id) {
+		ByteBuffer buffer = page(id);
+		int base = offset(id);
+		Node p = new Node(id, buffer.get(base + P_TYPE) == LEAF);
+		p.size = buffer.getInt(base + P_SIZE);
+		for (int i = 0; i < p.size; ++i) {
+			p.keys[i] = serializer.read(buffer, base + P_KEYS + i * keySize);
+		}
+		if (!p.isLeaf) {
+			for (int i = 0; i <= p.size; ++i) {
+				p.children[i] = buffer.getInt(base + childrenOffset + i * 4);
+			}
+		}
+		return p;
+	}
+	@SuppressWarnings("unchecked")
+	private void store(Node p) {
+		ByteBuffer buffer = page(p.id);
+		int base = offset(p.id);
+		buffer.put(base + P_TYPE, p.isLeaf ? LEAF : INTERNAL);
+		buffer.putInt(base + P_SIZE, p.size);
+		for (int i = 0; i < p.size; ++i) {
+			serializer.write(buffer, base + P_KEYS + i * keySize, (K)p.keys[i]);
+		}
+		if (!p.isLeaf) {
+			for (int i = 0; i <= p.size; ++i) {
+				buffer.putInt(base + childrenOffset + i * 4, p.children[i]);
+			}
+		}
+	}
+	/**
+	 * 把所有映射的页面强制写回磁盘。文件头就在第0页中，不需要单独写。
+	 */
+	public void flush() {
+		for (MappedByteBuffer segment : segments) {
+			segment.force();
+		}
+	}
+	@Override
+	public void close() throws IOException {
+		flush();
+		segments.clear();
+		channel.close();
+	}
+	/**
+	 * 返回B树的阶，由页面大小和关键字长度决定。
+	 * @return B树的阶
+	 */
+	public int getOrder() {
+		return this.order;
+	}
+	/**
+	 * 返回页面大小
+	 * @return 页面大小，单位字节
+	 */
+	public int getPageSize() {
+		return this.pageSize;
+	}
+	/**
+	 * 返回B树的高度，高度从1开始。
+	 * @return B树的高度。
+	 */
+	public int getHeight() {
+		if (isEmpty()) {
+			return 0;
+		}
+		return header().getInt(H_HEIGHT);
+	}
+	/**
+	 * 返回关键字的数量
+	 * @return 关键字数量。
+	 */
+	public long size() {
+		return header().getLong(H_SIZE);
+	}
+	/**
+	 * 判断该B树是否为空
+	 * @return 如果B树为空，返回true，否则返回false
+	 */
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+	@Override
+	public Iterator<K> iterator() {
+		return new Iter();
+	}
+	/**
+	 * 使用深度为树高的游标栈中序遍历，关键字直接从页面读取。
+	 */
+	private class Iter implements Iterator<K> {
+		int[] pages = new int[getHeight()];
+		int[] pos = new int[getHeight()];
+		int depth = -1;
+		int expectedModCount = modCount;
+		K lastRet;
+		Iter() {
+			if (!isEmpty()) {
+				push(root(), 0);
+				descendLeftmost();
+				normalize();
+			}
+		}
+		private void push(int id, int index) {
+			++depth;
+			pages[depth] = id;
+			pos[depth] = index;
+		}
+		private void descendLeftmost() {
+			int p = pages[depth];
+			while (!isLeaf(p)) {
+				p = childAt(p, pos[depth]);
+				push(p, 0);
+			}
+		}
+		private void normalize() {
+			while (depth >= 0 && pos[depth] >= sizeOf(pages[depth])) {
+				depth--;
+			}
+		}
+		private void seek(K key) {
+			pages = new int[getHeight()];
+			pos = new int[getHeight()];
+			depth = -1;
+			int p = root();
+			while (p != 0 && sizeOf(p) > 0) {
+				int index = binarySearch(p, key);
+				if (index >= 0) {
+					push(p, index);
+					break;
+				}
+				push(p, -index - 1);
+				if (isLeaf(p))
+					break;
+				p = childAt(p, -index - 1);
+			}
+			normalize();
+		}
+		@Override
+		public boolean hasNext() {
+			return depth >= 0;
+		}
+		@Override
+		public K next() {
+			checkForComodification();
+			if (depth < 0)
+				throw new NoSuchElementException();
+			int p = pages[depth];
+			lastRet = keyAt(p, pos[depth]);
+			pos[depth]++;
+			if (!isLeaf(p)) {
+				descendLeftmost();
+			}
+			normalize();
+			return lastRet;
+		}
+		@Override
+		public void remove() {
+			if (lastRet == null) {
+				throw new IllegalStateException();
+			}
+			checkForComodification();
+			PersistentBTree.this.remove(lastRet);
+			expectedModCount = modCount;
+			seek(lastRet);
+			lastRet = null;
+		}
+		final void checkForComodification() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+		}
+	}
+	/**
+	 * 页面在堆中的临时副本，只在修改页面时使用，多预留一个位置用于先插入再分裂。
+	 */
+	private final class Node {
+		final int id;
+		final boolean isLeaf;
+		final Object[] keys;
+		final int[] children;
+		int size;
+		Node(int id, boolean isLeaf) {
+			this.id = id;
+			this.isLeaf = isLeaf;
+			this.keys = new Object[MAX_KEYS + 1];
+			this.children = new int[MAX_KEYS + 2];
+		}
+		/**
+		 * 在index处插入关键字，right作为该关键字的右孩子。
+		 */
+		void insertAt(int index, Object key, int right) {
+			System.arraycopy(keys, index, keys, index + 1, size - index);
+			System.arraycopy(children, index + 1, children, index + 2, size - index);
+			keys[index] = key;
+			children[index + 1] = right;
+			size++;
+		}
+		/**
+		 * 删除index处的关键字以及它的右孩子。
+		 */
+		void deleteAt(int index) {
+			System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+			System.arraycopy(children, index + 2, children, index + 1, size - index - 1);
+			keys[--size] = null;
+		}
+	}
+}
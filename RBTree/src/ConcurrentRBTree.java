@@ -0,0 +1,160 @@
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * 线程安全的红黑树，适合读多写少的场景。
+ * 写操作（包括插入、删除后的fixAfterInsertion、fixAfterDeletion调整）在写锁中进行；
+ * contains先不加锁地乐观查找，结束后验证期间没有写操作，失败才加读锁重新查找，
+ * 因此读操作之间不会互相阻塞。
+ */
+public class ConcurrentRBTree<E> {
+	/**
+	 * 乐观查找最多走的步数。写操作旋转时读线程可能看到不一致的指针，甚至走进环，
+	 * 超过这个步数说明树正在被修改，直接放弃。红黑树的高度不超过2log(n + 1)，64位的规模也远小于这个值。
+	 */
+	private static final int MAX_OPTIMISTIC_STEPS = 130;
+	/**
+	 * 乐观查找失败后重试的次数，之后使用读锁。
+	 */
+	private static final int OPTIMISTIC_RETRIES = 2;
+	private final RBTree<E> tree;
+	private final StampedLock lock = new StampedLock();
+	public ConcurrentRBTree(Comparator<E> comparator) {
+		this.tree = new RBTree<>(comparator);
+	}
+	public ConcurrentRBTree() {
+		this(null);
+	}
+	public boolean contains(E e) {
+		Objects.requireNonNull(e);
+		for (int i = 0; i < OPTIMISTIC_RETRIES; ++i) {
+			long stamp = lock.tryOptimisticRead();
+			if (stamp == 0)
+				break; // 写锁被持有
+			int found = optimisticFind(e);
+			if (lock.validate(stamp) && found >= 0)
+				return found == 1;
+		}
+		long stamp = lock.readLock();
+		try {
+			return tree.contains(e);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	/**
+	 * 不加锁地查找e，返回1表示找到，0表示没有找到，-1表示步数超过限制。
+	 * 结果只有在验证stamp成功后才有效。
+	 */
+	private int optimisticFind(E e) {
+		RBTree.Node<E> p = tree.getRoot();
+		for (int steps = 0; p != null; ++steps) {
+			if (steps > MAX_OPTIMISTIC_STEPS)
+				return -1;
+			E value = p.value;
+			if (value == null)
+				return -1;
+			int cmp = tree.cmp(e, value);
+			if (cmp < 0)
+				p = p.left;
+			else if (cmp > 0)
+				p = p.right;
+			else
+				return 1;
+		}
+		return 0;
+	}
+	public int size() {
+		long stamp = lock.tryOptimisticRead();
+		int size = tree.size();
+		if (!lock.validate(stamp)) {
+			stamp = lock.readLock();
+			try {
+				size = tree.size();
+			} finally {
+				lock.unlockRead(stamp);
+			}
+		}
+		return size;
+	}
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+	public boolean add(E e) {
+		long stamp = lock.writeLock();
+		try {
+			return tree.add(e);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	public boolean remove(E e) {
+		long stamp = lock.writeLock();
+		try {
+			return tree.remove(e);
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	public E pollFirst() {
+		long stamp = lock.writeLock();
+		try {
+			return tree.pollFirst();
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	public E pollLast() {
+		long stamp = lock.writeLock();
+		try {
+			return tree.pollLast();
+		} finally {
+			lock.unlockWrite(stamp);
+		}
+	}
+	public E floor(E e) {
+		long stamp = lock.readLock();
+		try {
+			return tree.floor(e);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	public E ceiling(E e) {
+		long stamp = lock.readLock();
+		try {
+			return tree.ceiling(e);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	public E higher(E e) {
+		long stamp = lock.readLock();
+		try {
+			return tree.higher(e);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	public E lower(E e) {
+		long stamp = lock.readLock();
+		try {
+			return tree.lower(e);
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+	/**
+	 * 返回当前所有元素的有序拷贝。
+	 */
+	public List<E> toList() {
+		long stamp = lock.readLock();
+		try {
+			return tree.toList();
+		} finally {
+			lock.unlockRead(stamp);
+		}
+	}
+}
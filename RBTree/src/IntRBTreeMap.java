@@ -0,0 +1,427 @@
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * int到对象的有序映射，用红黑树实现。
+ * 节点不是对象，而是几个并行数组中的下标：keys、values、left、right、parent，
+ * 颜色用位图保存，删除的节点放入空闲链表（复用left数组）供之后插入使用。
+ * 与RBTree<E>相比，每个映射项没有节点对象和装箱的关键字，占用内存少，GC只需要扫描values数组。
+ */
+public class IntRBTreeMap<V> {
+	private static final int NIL = -1;
+	private static final boolean RED = false;
+	private static final boolean BLACK = true;
+	private static final int DEFAULT_CAPACITY = 16;
+	private int[] keys;
+	private Object[] values;
+	private int[] left;
+	private int[] right;
+	private int[] parent;
+	private long[] red; // 第i位为1表示节点i是红色节点
+	private int root = NIL;
+	private int free = NIL; // 空闲链表头，通过left数组串联
+	private int used; // 已经分配过的下标数量
+	private int size;
+	private int modCount;
+	public IntRBTreeMap(int initialCapacity) {
+		if (initialCapacity < 0)
+			throw new IllegalArgumentException("Illegal capacity: " + initialCapacity);
+		allocate(Math.max(initialCapacity, 1));
+	}
+	public IntRBTreeMap() {
+		this(DEFAULT_CAPACITY);
+	}
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new Object[capacity];
+		left = new int[capacity];
+		right = new int[capacity];
+		parent = new int[capacity];
+		red = new long[(capacity + 63) >>> 6];
+	}
+	public int size() {
+		return size;
+	}
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	public void clear() {
+		modCount++;
+		root = NIL;
+		free = NIL;
+		used = 0;
+		size = 0;
+		Arrays.fill(values, 0, used, null);
+		Arrays.fill(red, 0L);
+	}
+	public boolean containsKey(int key) {
+		return find(key) != NIL;
+	}
+	@SuppressWarnings("unchecked")
+	public V get(int key) {
+		int p = find(key);
+		return p == NIL ? null : (V)values[p];
+	}
+	/**
+	 * 插入或者替换key的映射。
+	 * @return key原来映射的值，不存在时返回null
+	 */
+	@SuppressWarnings("unchecked")
+	public V put(int key, V value) {
+		int t = root;
+		if (t == NIL) {
+			root = newNode(key, value, NIL);
+			setColor(root, BLACK);
+			size = 1;
+			modCount++;
+			return null;
+		}
+		int p;
+		boolean less;
+		do {
+			p = t;
+			if (key < keys[t]) {
+				less = true;
+				t = left[t];
+			} else if (key > keys[t]) {
+				less = false;
+				t = right[t];
+			} else {
+				V oldValue = (V)values[t];
+				values[t] = value;
+				return oldValue;
+			}
+		} while (t != NIL);
+		int x = newNode(key, value, p);
+		if (less)
+			left[p] = x;
+		else
+			right[p] = x;
+		fixAfterInsertion(x);
+		size++;
+		modCount++;
+		return null;
+	}
+	/**
+	 * 删除key的映射。
+	 * @return key原来映射的值，不存在时返回null
+	 */
+	@SuppressWarnings("unchecked")
+	public V remove(int key) {
+		int p = find(key);
+		if (p == NIL)
+			return null;
+		V oldValue = (V)values[p];
+		deleteNode(p);
+		return oldValue;
+	}
+	public int firstKey() {
+		if (root == NIL)
+			throw new NoSuchElementException();
+		return keys[leftmost(root)];
+	}
+	public int lastKey() {
+		if (root == NIL)
+			throw new NoSuchElementException();
+		int p = root;
+		while (right[p] != NIL)
+			p = right[p];
+		return keys[p];
+	}
+	/**
+	 * 返回按key递增顺序遍历的迭代器，支持remove()。
+	 */
+	public PrimitiveIterator.OfInt keyIterator() {
+		return new KeyIterator();
+	}
+	/**
+	 * 释放多余的数组空间。
+	 */
+	public void trimToSize() {
+		if (size == used && used < keys.length) {
+			resize(Math.max(used, 1));
+		}
+	}
+	private int find(int key) {
+		int p = root;
+		while (p != NIL) {
+			if (key < keys[p])
+				p = left[p];
+			else if (key > keys[p])
+				p = right[p];
+			else
+				return p;
+		}
+		return NIL;
+	}
+	private int newNode(int key, Object value, int p) {
+		int x;
+		if (free != NIL) {
+			x = free;
+			free = left[x];
+		} else {
+			if (used == keys.length)
+				resize(used + (used >> 1) + 1);
+			x = used++;
+		}
+		keys[x] = key;
+		values[x] = value;
+		left[x] = NIL;
+		right[x] = NIL;
+		parent[x] = p;
+		setColor(x, BLACK);
+		return x;
+	}
+	private void freeNode(int x) {
+		values[x] = null;
+		right[x] = NIL;
+		parent[x] = NIL;
+		left[x] = free;
+		free = x;
+	}
+	private void resize(int capacity) {
+		keys = Arrays.copyOf(keys, capacity);
+		values = Arrays.copyOf(values, capacity);
+		left = Arrays.copyOf(left, capacity);
+		right = Arrays.copyOf(right, capacity);
+		parent = Arrays.copyOf(parent, capacity);
+		red = Arrays.copyOf(red, (capacity + 63) >>> 6);
+	}
+	private int leftmost(int p) {
+		while (left[p] != NIL)
+			p = left[p];
+		return p;
+	}
+	private int successor(int t) {
+		if (t == NIL)
+			return NIL;
+		if (right[t] != NIL)
+			return leftmost(right[t]);
+		int p = parent[t];
+		int ch = t;
+		while (p != NIL && ch == right[p]) {
+			ch = p;
+			p = parent[p];
+		}
+		return p;
+	}
+	private void deleteNode(int p) {
+		modCount++;
+		size--;
+		// p有两个孩子节点，则使用p的后继代替，然后转化成删除后继节点（后继必然没有左孩子）
+		if (left[p] != NIL && right[p] != NIL) {
+			int s = successor(p);
+			keys[p] = keys[s];
+			values[p] = values[s];
+			p = s;
+		}
+		int replacement = left[p] != NIL ? left[p] : right[p];
+		if (replacement != NIL) {
+			parent[replacement] = parent[p];
+			if (parent[p] == NIL)
+				root = replacement;
+			else if (p == left[parent[p]])
+				left[parent[p]] = replacement;
+			else
+				right[parent[p]] = replacement;
+			if (colorOf(p) == BLACK)
+				fixAfterDeletion(replacement);
+		} else if (parent[p] == NIL) {
+			root = NIL;
+		} else { // p没有孩子节点，把自己当作replacement调整后再删除
+			if (colorOf(p) == BLACK)
+				fixAfterDeletion(p);
+			int pp = parent[p];
+			if (pp != NIL) {
+				if (p == left[pp])
+					left[pp] = NIL;
+				else if (p == right[pp])
+					right[pp] = NIL;
+			}
+		}
+		freeNode(p);
+	}
+	private boolean colorOf(int p) {
+		return p == NIL || (red[p >>> 6] & (1L << p)) == 0 ? BLACK : RED;
+	}
+	private void setColor(int p, boolean c) {
+		if (p == NIL)
+			return;
+		if (c == RED)
+			red[p >>> 6] |= 1L << p;
+		else
+			red[p >>> 6] &= ~(1L << p);
+	}
+	private int parentOf(int p) {
+		return p == NIL ? NIL : parent[p];
+	}
+	private int leftOf(int p) {
+		return p == NIL ? NIL : left[p];
+	}
+	private int rightOf(int p) {
+		return p == NIL ? NIL : right[p];
+	}
+	private void rotateLeft(int p) {
+		if (p != NIL) {
+			int r = right[p];
+			right[p] = left[r];
+			if (left[r] != NIL)
+				parent[left[r]] = p;
+			parent[r] = parent[p];
+			if (parent[p] == NIL)
+				root = r;
+			else if (left[parent[p]] == p)
+				left[parent[p]] = r;
+			else
+				right[parent[p]] = r;
+			left[r] = p;
+			parent[p] = r;
+		}
+	}
+	private void rotateRight(int p) {
+		if (p != NIL) {
+			int l = left[p];
+			left[p] = right[l];
+			if (right[l] != NIL)
+				parent[right[l]] = p;
+			parent[l] = parent[p];
+			if (parent[p] == NIL)
+				root = l;
+			else if (right[parent[p]] == p)
+				right[parent[p]] = l;
+			else
+				left[parent[p]] = l;
+			right[l] = p;
+			parent[p] = l;
+		}
+	}
+	private void fixAfterInsertion(int x) {
+		setColor(x, RED);
+		while (x != NIL && x != root && colorOf(parent[x]) == RED) {
+			int p = parentOf(x);
+			int g = parentOf(p);
+			if (p == leftOf(g)) {
+				int uncle = rightOf(g);
+				if (colorOf(uncle) == RED) {
+					setColor(p, BLACK);
+					setColor(uncle, BLACK);
+					setColor(g, RED);
+					x = g;
+				} else {
+					if (x == rightOf(p)) {
+						x = p;
+						rotateLeft(x);
+					}
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					rotateRight(parentOf(parentOf(x)));
+				}
+			} else {
+				int uncle = leftOf(g);
+				if (colorOf(uncle) == RED) {
+					setColor(p, BLACK);
+					setColor(uncle, BLACK);
+					setColor(g, RED);
+					x = g;
+				} else {
+					if (x == leftOf(p)) {
+						x = p;
+						rotateRight(x);
+					}
+					setColor(parentOf(x), BLACK);
+					setColor(parentOf(parentOf(x)), RED);
+					rotateLeft(parentOf(parentOf(x)));
+				}
+			}
+		}
+		setColor(root, BLACK);
+	}
+	private void fixAfterDeletion(int x) {
+		while (x != root && colorOf(x) == BLACK) {
+			if (x == leftOf(parentOf(x))) {
+				int sib = rightOf(parentOf(x));
+				if (colorOf(sib) == RED) {
+					setColor(sib, BLACK);
+					setColor(parentOf(x), RED);
+					rotateLeft(parentOf(x));
+					sib = rightOf(parentOf(x));
+				}
+				if (colorOf(leftOf(sib)) == BLACK && colorOf(rightOf(sib)) == BLACK) {
+					setColor(sib, RED);
+					x = parentOf(x);
+				} else {
+					if (colorOf(rightOf(sib)) == BLACK) {
+						setColor(leftOf(sib), BLACK);
+						setColor(sib, RED);
+						rotateRight(sib);
+						sib = rightOf(parentOf(x));
+					}
+					setColor(sib, colorOf(parentOf(x)));
+					setColor(parentOf(x), BLACK);
+					setColor(rightOf(sib), BLACK);
+					rotateLeft(parentOf(x));
+					x = root;
+				}
+			} else {
+				int sib = leftOf(parentOf(x));
+				if (colorOf(sib) == RED) {
+					setColor(sib, BLACK);
+					setColor(parentOf(x), RED);
+					rotateRight(parentOf(x));
+					sib = leftOf(parentOf(x));
+				}
+				if (colorOf(rightOf(sib)) == BLACK && colorOf(leftOf(sib)) == BLACK) {
+					setColor(sib, RED);
+					x = parentOf(x);
+				} else {
+					if (colorOf(leftOf(sib)) == BLACK) {
+						setColor(rightOf(sib), BLACK);
+						setColor(sib, RED);
+						rotateLeft(sib);
+						sib = leftOf(parentOf(x));
+					}
+					setColor(sib, colorOf(parentOf(x)));
+					setColor(parentOf(x), BLACK);
+					setColor(leftOf(sib), BLACK);
+					rotateRight(parentOf(x));
+					x = root;
+				}
+			}
+		}
+		setColor(x, BLACK);
+	}
+	private final class KeyIterator implements PrimitiveIterator.OfInt {
+		int next = root == NIL ? NIL : leftmost(root);
+		int lastReturned = NIL;
+		int expectedModCount = modCount;
+		@Override
+		public boolean hasNext() {
+			return next != NIL;
+		}
+		@Override
+		public int nextInt() {
+			if (next == NIL)
+				throw new NoSuchElementException();
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			lastReturned = next;
+			next = successor(next);
+			return keys[lastReturned];
+		}
+		@Override
+		public void remove() {
+			if (lastReturned == NIL)
+				throw new IllegalStateException();
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			// 有两个孩子的节点删除时会被后继的内容覆盖，后继就是它自己
+			if (left[lastReturned] != NIL && right[lastReturned] != NIL)
+				next = lastReturned;
+			deleteNode(lastReturned);
+			expectedModCount = modCount;
+			lastReturned = NIL;
+		}
+	}
+}
@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 区间树，在红黑树的基础上每个节点额外记录子树中所有区间右端点的最大值，
+ * 用于在O(log n)时间内找到与给定区间重叠的一个区间，或者在O(k + log n)时间内找到所有k个重叠的区间。
+ * 区间都是闭区间，按左端点排序，左端点相同时按右端点排序，相同的区间只保存一个。
+ */
+public class IntervalTree<T extends Comparable<? super T>> extends RBTree<IntervalTree.Interval<T>> {
+	/**
+	 * 所有区间树共享同一个比较器，使得它们之间可以进行union等集合运算。
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	private static final Comparator<Interval> ORDER = (a, b) -> {
+		int c = a.low.compareTo(b.low);
+		return c != 0 ? c : a.high.compareTo(b.high);
+	};
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	public IntervalTree() {
+		super((Comparator)ORDER);
+	}
+	@Override
+	protected RBTree<Interval<T>> newTree() {
+		return new IntervalTree<>();
+	}
+	/**
+	 * 闭区间[low, high]。max是子树的附加信息，由所在的树维护。
+	 */
+	public static final class Interval<T extends Comparable<? super T>> {
+		final T low;
+		final T high;
+		T max;
+		public Interval(T low, T high) {
+			Objects.requireNonNull(low);
+			Objects.requireNonNull(high);
+			if (low.compareTo(high) > 0)
+				throw new IllegalArgumentException("low > high");
+			this.low = low;
+			this.high = high;
+			this.max = high;
+		}
+		public T getLow() {
+			return low;
+		}
+		public T getHigh() {
+			return high;
+		}
+		public boolean overlaps(T low, T high) {
+			return this.low.compareTo(high) <= 0 && low.compareTo(this.high) <= 0;
+		}
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Interval))
+				return false;
+			Interval<?> i = (Interval<?>)o;
+			return low.equals(i.low) && high.equals(i.high);
+		}
+		@Override
+		public int hashCode() {
+			return 31 * low.hashCode() + high.hashCode();
+		}
+		@Override
+		public String toString() {
+			return "[" + low + ", " + high + "]";
+		}
+	}
+	public boolean add(T low, T high) {
+		return add(new Interval<>(low, high));
+	}
+	/**
+	 * 插入区间i的拷贝，max保存在区间对象中，不能和其他树共享。join时同样使用拷贝。
+	 */
+	@Override
+	public boolean add(Interval<T> i) {
+		return super.add(copyKey(i));
+	}
+	@Override
+	protected Interval<T> copyKey(Interval<T> i) {
+		return new Interval<>(i.low, i.high);
+	}
+	public boolean remove(T low, T high) {
+		return remove(new Interval<>(low, high));
+	}
+	@Override
+	protected void updateNode(Node<Interval<T>> p) {
+		super.updateNode(p);
+		Interval<T> i = p.value;
+		T max = i.high;
+		if (p.left != null && p.left.value.max.compareTo(max) > 0)
+			max = p.left.value.max;
+		if (p.right != null && p.right.value.max.compareTo(max) > 0)
+			max = p.right.value.max;
+		i.max = max;
+	}
+	/**
+	 * 返回任意一个与[low, high]重叠的区间，不存在时返回null。
+	 */
+	public Interval<T> findOverlapping(T low, T high) {
+		Node<Interval<T>> p = getRoot();
+		while (p != null) {
+			if (p.value.overlaps(low, high))
+				return p.value;
+			// 左子树中最大的右端点不小于low时，若左子树中没有重叠的区间，右子树中也不会有
+			if (p.left != null && p.left.value.max.compareTo(low) >= 0)
+				p = p.left;
+			else
+				p = p.right;
+		}
+		return null;
+	}
+	/**
+	 * 按左端点递增的顺序返回所有与[low, high]重叠的区间。
+	 */
+	public List<Interval<T>> findAllOverlapping(T low, T high) {
+		List<Interval<T>> result = new ArrayList<>();
+		collect(getRoot(), low, high, result);
+		return result;
+	}
+	private void collect(Node<Interval<T>> p, T low, T high, List<Interval<T>> result) {
+		if (p == null || p.value.max.compareTo(low) < 0)
+			return;
+		collect(p.left, low, high, result);
+		if (p.value.low.compareTo(high) > 0)
+			return; // 右子树的左端点都大于high
+		if (p.value.overlaps(low, high))
+			result.add(p.value);
+		collect(p.right, low, high, result);
+	}
+}
@@ -1,25 +1,176 @@
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Objects;
-public class RBTree<E> {
+import java.util.Queue;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+public class RBTree<E> implements Iterable<E> {
 	private Node<E> root;
 	private int modCount;
 	private int size;
 	private final Comparator<E> comparator;
 	private static final boolean RED = false;
 	private static final boolean BLACK = true;
+	// 删除的节点放入pool中，插入时优先从pool中取，避免频繁插入删除时不断分配节点
+	private final int poolCapacity;
+	private Node<E> pool; // 通过right串联
+	private int poolSize;
+	private long poolHits;
+	private long poolMisses;
 	public RBTree(Comparator<E> comparator) {
+		this(comparator, 0);
+	}
+	/**
+	 * @param comparator 比较器，为null时使用元素的自然顺序
+	 * @param poolCapacity 回收节点池的容量，为0时不回收节点
+	 */
+	public RBTree(Comparator<E> comparator, int poolCapacity) {
+		if (poolCapacity < 0)
+			throw new IllegalArgumentException("Illegal pool capacity: " + poolCapacity);
 		this.comparator = comparator;
+		this.poolCapacity = poolCapacity;
 		this.size = 0;
 	}
 	public RBTree() {
 		this(null);
 	}
+	/**
+	 * 返回插入时从节点池中取到节点的次数。
+	 */
+	public long getPoolHits() {
+		return poolHits;
+	}
+	/**
+	 * 返回插入时节点池为空、需要分配新节点的次数，没有启用节点池时为0。
+	 */
+	public long getPoolMisses() {
+		return poolMisses;
+	}
+	/**
+	 * 返回节点池的命中率，没有插入过节点时为0。
+	 */
+	public double getPoolHitRate() {
+		long total = poolHits + poolMisses;
+		return total == 0 ? 0.0 : (double)poolHits / total;
+	}
+	/**
+	 * 返回节点池中当前空闲节点的个数。
+	 */
+	public int getPoolSize() {
+		return poolSize;
+	}
+	private Node<E> newNode(E e, Node<E> parent) {
+		Node<E> p = pool;
+		if (p == null) {
+			if (poolCapacity > 0)
+				poolMisses++;
+			return new Node<>(e, parent);
+		}
+		poolHits++;
+		pool = p.right;
+		poolSize--;
+		p.right = null;
+		p.value = e;
+		p.parent = parent;
+		return p;
+	}
+	/**
+	 * 回收已经从树中删除的节点p，节点池满时交给GC。
+	 */
+	private void recycle(Node<E> p) {
+		if (poolSize >= poolCapacity)
+			return;
+		p.value = null;
+		p.left = p.parent = null;
+		p.color = BLACK;
+		p.count = 1;
+		p.right = pool;
+		pool = p;
+		poolSize++;
+	}
+	/**
+	 * 回收子树p中的节点，节点池满时停止，剩下的节点交给GC。
+	 */
+	private void recycleAll(Node<E> p) {
+		while (p != null && poolSize < poolCapacity) {
+			Node<E> right = p.right;
+			recycleAll(p.left);
+			recycle(p);
+			p = right;
+		}
+	}
 	public int size() {
 		return size;
 	}
+	/**
+	 * 用有序的元素在O(n)时间内构建红黑树，方法同java.util.TreeMap.buildFromSorted：
+	 * 递归地取中间元素作为根，得到一棵完全平衡的树，只把最底层不满的那一层节点染成红色。
+	 * @param it 严格递增的元素
+	 * @param size 元素个数，it中至少要有size个元素
+	 * @throws IllegalArgumentException 若元素不是严格递增的
+	 */
+	public static <E> RBTree<E> fromSorted(Iterator<? extends E> it, int size) {
+		return fromSorted(it, size, null);
+	}
+	public static <E> RBTree<E> fromSorted(Iterator<? extends E> it, int size, Comparator<E> comparator) {
+		if (size < 0)
+			throw new IllegalArgumentException("Illegal size: " + size);
+		RBTree<E> tree = new RBTree<>(comparator);
+		tree.root = tree.buildFromSorted(0, 0, size - 1, computeRedLevel(size), it, new Object[1]);
+		tree.size = size;
+		return tree;
+	}
+	/**
+	 * 构建it中接下来hi - lo + 1个元素组成的子树，level为子树根的深度，
+	 * last[0]保存上一个元素，用于检查输入是否递增。
+	 */
+	private Node<E> buildFromSorted(int level, int lo, int hi, int redLevel, Iterator<? extends E> it, Object[] last) {
+		if (hi < lo)
+			return null;
+		int mid = (lo + hi) >>> 1;
+		Node<E> left = null;
+		if (lo < mid)
+			left = buildFromSorted(level + 1, lo, mid - 1, redLevel, it, last);
+		E e = Objects.requireNonNull(it.next());
+		@SuppressWarnings("unchecked")
+		E prev = (E)last[0];
+		if (prev == null ? cmp(e, e) != 0 : cmp(prev, e) >= 0)
+			throw new IllegalArgumentException("Input is not strictly ascending: " + prev + ", " + e);
+		last[0] = e;
+		Node<E> middle = new Node<>(e, null);
+		if (level == redLevel)
+			middle.color = RED;
+		if (left != null) {
+			middle.left = left;
+			left.parent = middle;
+		}
+		if (mid < hi) {
+			Node<E> right = buildFromSorted(level + 1, mid + 1, hi, redLevel, it, last);
+			middle.right = right;
+			right.parent = middle;
+		}
+		updateNode(middle);
+		return middle;
+	}
+	/**
+	 * 返回完全平衡的n个节点的树中最底层（可能不满）的深度，根的深度为0。
+	 */
+	private static int computeRedLevel(int n) {
+		int level = 0;
+		for (int m = n - 1; m >= 0; m = m / 2 - 1)
+			level++;
+		return level;
+	}
 	public int cmp(E e1, E e2) {
 		if (comparator != null)
 			return comparator.compare(e1, e2);
@@ -38,7 +189,7 @@ public class RBTree<E> {
 		Node<E> t = root;
 		if (t == null) {
 			cmp(e, e);
-			root = new Node<E>(e, null);
+			root = newNode(e, null);
 			size = 1;
 			modCount++;
 			return true;
@@ -55,11 +206,12 @@ public class RBTree<E> {
 			else
 				return false;
 		} while(t != null);
-		Node<E> newNode = new Node<>(e, parent);
+		Node<E> newNode = newNode(e, parent);
 		if (cmp < 0)
 			parent.left = newNode;
 		else
 			parent.right = newNode;
+		updateAncestors(parent);
 		fixAfterInsertion(newNode);
 		size++;
 		modCount++;
@@ -86,6 +238,686 @@ public class RBTree<E> {
 		}
 		return null;
 	}
+	/**
+	 * 返回小于等于e的最大元素，不存在时返回null。
+	 */
+	public E floor(E e) {
+		return valueOf(getFloorNode(e));
+	}
+	/**
+	 * 返回大于等于e的最小元素，不存在时返回null。
+	 */
+	public E ceiling(E e) {
+		return valueOf(getCeilingNode(e));
+	}
+	/**
+	 * 返回大于e的最小元素，不存在时返回null。
+	 */
+	public E higher(E e) {
+		return valueOf(getHigherNode(e));
+	}
+	/**
+	 * 返回小于e的最大元素，不存在时返回null。
+	 */
+	public E lower(E e) {
+		return valueOf(getLowerNode(e));
+	}
+	public E first() {
+		return key(getFirstNode());
+	}
+	public E last() {
+		return key(getLastNode());
+	}
+	/**
+	 * 删除并返回最小元素，树为空时返回null。
+	 */
+	public E pollFirst() {
+		Node<E> p = getFirstNode();
+		if (p == null)
+			return null;
+		E e = p.value;
+		deleteNode(p);
+		return e;
+	}
+	/**
+	 * 删除并返回最大元素，树为空时返回null。
+	 */
+	public E pollLast() {
+		Node<E> p = getLastNode();
+		if (p == null)
+			return null;
+		E e = p.value;
+		deleteNode(p);
+		return e;
+	}
+	/**
+	 * 返回[from, to)范围内元素的视图，视图不复制元素，对树的修改在视图中可见，反之亦然。
+	 */
+	public SubSet subSet(E from, E to) {
+		return subSet(from, true, to, false);
+	}
+	public SubSet subSet(E from, boolean fromInclusive, E to, boolean toInclusive) {
+		Objects.requireNonNull(from);
+		Objects.requireNonNull(to);
+		if (cmp(from, to) > 0)
+			throw new IllegalArgumentException("from > to");
+		return new SubSet(from, fromInclusive, to, toInclusive);
+	}
+	/**
+	 * 返回小于to的元素的视图。
+	 */
+	public SubSet headSet(E to) {
+		Objects.requireNonNull(to);
+		return new SubSet(null, false, to, false);
+	}
+	/**
+	 * 返回大于等于from的元素的视图。
+	 */
+	public SubSet tailSet(E from) {
+		Objects.requireNonNull(from);
+		return new SubSet(from, true, null, false);
+	}
+	/**
+	 * 返回第k小的元素（从0开始），复杂度为O(log n)。
+	 * @throws IndexOutOfBoundsException 若k < 0或者k >= size()
+	 */
+	public E select(int k) {
+		if (k < 0 || k >= size)
+			throw new IndexOutOfBoundsException("k: " + k + ", size: " + size);
+		Node<E> p = root;
+		while (true) {
+			int leftCount = countOf(p.left);
+			if (k < leftCount) {
+				p = p.left;
+			} else if (k > leftCount) {
+				k -= leftCount + 1;
+				p = p.right;
+			} else {
+				return p.value;
+			}
+		}
+	}
+	/**
+	 * 返回小于e的元素个数，复杂度为O(log n)。
+	 */
+	public int rank(E e) {
+		Objects.requireNonNull(e);
+		Node<E> p = root;
+		int rank = 0;
+		while (p != null) {
+			int cmp = cmp(e, p.value);
+			if (cmp < 0) {
+				p = p.left;
+			} else if (cmp > 0) {
+				rank += countOf(p.left) + 1;
+				p = p.right;
+			} else {
+				return rank + countOf(p.left);
+			}
+		}
+		return rank;
+	}
+	/**
+	 * 返回[lo, hi)范围内的元素个数，复杂度为O(log n)。
+	 */
+	public int countBetween(E lo, E hi) {
+		return Math.max(0, rank(hi) - rank(lo));
+	}
+	/**
+	 * 返回节点p在树中的序号。
+	 */
+	static <E> int rankOf(Node<E> p) {
+		int rank = countOf(p.left);
+		for (Node<E> parent = p.parent; parent != null; p = parent, parent = parent.parent) {
+			if (p == parent.right)
+				rank += countOf(parent.left) + 1;
+		}
+		return rank;
+	}
+	static <E> int countOf(Node<E> p) {
+		return p == null ? 0 : p.count;
+	}
+	/**
+	 * 根据p的孩子重新计算p上的附加信息。旋转、插入和删除后会对受影响的节点调用该方法，
+	 * 调用时p的孩子已经是最新的。子类可以覆盖它来维护其他信息，但必须调用super.updateNode(p)。
+	 */
+	protected void updateNode(Node<E> p) {
+		p.count = 1 + countOf(p.left) + countOf(p.right);
+	}
+	private void updateAncestors(Node<E> p) {
+		for (; p != null; p = p.parent)
+			updateNode(p);
+	}
+	private static <E> E valueOf(Node<E> p) {
+		return p == null ? null : p.value;
+	}
+	private static <E> E key(Node<E> p) {
+		if (p == null)
+			throw new NoSuchElementException();
+		return p.value;
+	}
+	final Node<E> getCeilingNode(E e) {
+		Objects.requireNonNull(e);
+		Node<E> p = root, best = null;
+		while (p != null) {
+			int cmp = cmp(e, p.value);
+			if (cmp < 0) {
+				best = p;
+				p = p.left;
+			} else if (cmp > 0) {
+				p = p.right;
+			} else {
+				return p;
+			}
+		}
+		return best;
+	}
+	final Node<E> getFloorNode(E e) {
+		Objects.requireNonNull(e);
+		Node<E> p = root, best = null;
+		while (p != null) {
+			int cmp = cmp(e, p.value);
+			if (cmp > 0) {
+				best = p;
+				p = p.right;
+			} else if (cmp < 0) {
+				p = p.left;
+			} else {
+				return p;
+			}
+		}
+		return best;
+	}
+	final Node<E> getHigherNode(E e) {
+		Objects.requireNonNull(e);
+		Node<E> p = root, best = null;
+		while (p != null) {
+			if (cmp(e, p.value) < 0) {
+				best = p;
+				p = p.left;
+			} else {
+				p = p.right;
+			}
+		}
+		return best;
+	}
+	final Node<E> getLowerNode(E e) {
+		Objects.requireNonNull(e);
+		Node<E> p = root, best = null;
+		while (p != null) {
+			if (cmp(e, p.value) > 0) {
+				best = p;
+				p = p.right;
+			} else {
+				p = p.left;
+			}
+		}
+		return best;
+	}
+	/**
+	 * 树中某个范围内元素的视图，from或to为null表示该方向没有边界。
+	 */
+	public final class SubSet implements Iterable<E> {
+		private final E from, to;
+		private final boolean fromInclusive, toInclusive;
+		SubSet(E from, boolean fromInclusive, E to, boolean toInclusive) {
+			this.from = from;
+			this.fromInclusive = fromInclusive;
+			this.to = to;
+			this.toInclusive = toInclusive;
+		}
+		private boolean tooLow(E e) {
+			if (from == null)
+				return false;
+			int c = cmp(e, from);
+			return c < 0 || (c == 0 && !fromInclusive);
+		}
+		private boolean tooHigh(E e) {
+			if (to == null)
+				return false;
+			int c = cmp(e, to);
+			return c > 0 || (c == 0 && !toInclusive);
+		}
+		boolean inRange(E e) {
+			return !tooLow(e) && !tooHigh(e);
+		}
+		final Node<E> lowestNode() {
+			Node<E> p = from == null ? getFirstNode() : (fromInclusive ? getCeilingNode(from) : getHigherNode(from));
+			return p == null || tooHigh(p.value) ? null : p;
+		}
+		final Node<E> highestNode() {
+			Node<E> p = to == null ? getLastNode() : (toInclusive ? getFloorNode(to) : getLowerNode(to));
+			return p == null || tooLow(p.value) ? null : p;
+		}
+		public boolean contains(E e) {
+			return inRange(e) && RBTree.this.contains(e);
+		}
+		public boolean add(E e) {
+			if (!inRange(e))
+				throw new IllegalArgumentException("key out of range");
+			return RBTree.this.add(e);
+		}
+		public boolean remove(E e) {
+			return inRange(e) && RBTree.this.remove(e);
+		}
+		public boolean isEmpty() {
+			return lowestNode() == null;
+		}
+		/**
+		 * 返回视图中元素的个数，复杂度为O(log n)。
+		 */
+		public int size() {
+			Node<E> lo = lowestNode();
+			if (lo == null)
+				return 0;
+			return rankOf(highestNode()) - rankOf(lo) + 1;
+		}
+		public E first() {
+			return key(lowestNode());
+		}
+		public E last() {
+			return key(highestNode());
+		}
+		@Override
+		public Iterator<E> iterator() {
+			return new ValueIterator(lowestNode(), this);
+		}
+	}
+	/**
+	 * 沿着后继指针按递增顺序遍历，bound不为null时遇到超出范围的元素就结束。
+	 */
+	private final class ValueIterator implements Iterator<E> {
+		private Node<E> next;
+		private Node<E> lastReturned;
+		private final SubSet bound;
+		private int expectedModCount = modCount;
+		ValueIterator(Node<E> first, SubSet bound) {
+			this.bound = bound;
+			this.next = first;
+		}
+		@Override
+		public boolean hasNext() {
+			return next != null && (bound == null || !bound.tooHigh(next.value));
+		}
+		@Override
+		public E next() {
+			if (!hasNext())
+				throw new NoSuchElementException();
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			lastReturned = next;
+			next = successor(next);
+			return lastReturned.value;
+		}
+		@Override
+		public void remove() {
+			if (lastReturned == null)
+				throw new IllegalStateException();
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			// 有两个孩子的节点会被后继的值覆盖，后继的值留在lastReturned中
+			if (lastReturned.left != null && lastReturned.right != null)
+				next = lastReturned;
+			deleteNode(lastReturned);
+			expectedModCount = modCount;
+			lastReturned = null;
+		}
+	}
+	/**
+	 * 把other中的元素合并到当前树中，结果为两者的并集。
+	 * 操作直接重用两棵树的节点，结束后other为空。两棵树必须使用相同的比较器。
+	 * 复杂度为O(m log(n / m + 1))，m、n分别为较小和较大的树的大小。
+	 */
+	public void union(RBTree<E> other) {
+		setOperation(UNION, other, false);
+	}
+	/**
+	 * 当前树只保留同时在other中的元素，结束后other为空。
+	 */
+	public void intersection(RBTree<E> other) {
+		setOperation(INTERSECTION, other, false);
+	}
+	/**
+	 * 从当前树中删除other中的元素，结束后other为空。
+	 */
+	public void difference(RBTree<E> other) {
+		setOperation(DIFFERENCE, other, false);
+	}
+	/**
+	 * 同union，子问题足够大时使用ForkJoinPool并行计算。
+	 */
+	public void parallelUnion(RBTree<E> other) {
+		setOperation(UNION, other, true);
+	}
+	public void parallelIntersection(RBTree<E> other) {
+		setOperation(INTERSECTION, other, true);
+	}
+	public void parallelDifference(RBTree<E> other) {
+		setOperation(DIFFERENCE, other, true);
+	}
+	/**
+	 * 把不小于key的元素移到一棵新树中并返回，当前树只保留小于key的元素，复杂度为O(log n)。
+	 */
+	public RBTree<E> split(E key) {
+		Objects.requireNonNull(key);
+		Split<E> s = split(whole(), key);
+		Part<E> right = s.right;
+		if (s.found != null)
+			right = join(emptyPart(), s.found, right);
+		RBTree<E> tail = newTree();
+		setRoot(s.left);
+		tail.setRoot(right);
+		return tail;
+	}
+	/**
+	 * 把left、key和right连接成一棵树，要求left的元素都小于key，right的元素都大于key，复杂度为O(log n)。
+	 * 结果保存在left中并返回，结束后right为空。
+	 */
+	public static <E> RBTree<E> join(RBTree<E> left, E key, RBTree<E> right) {
+		Objects.requireNonNull(key);
+		left.checkComparator(right);
+		if ((!left.isEmpty() && left.cmp(left.last(), key) >= 0) || (!right.isEmpty() && left.cmp(key, right.first()) >= 0))
+			throw new IllegalArgumentException("keys are not ordered");
+		left.setRoot(left.join(left.whole(), left.newNode(left.copyKey(key), null), right.whole()));
+		right.setRoot(emptyPart());
+		return left;
+	}
+	/**
+	 * 返回join时保存到树中的元素，默认直接使用调用者传入的key。
+	 * 子类的元素中保存了由树维护的附加信息时覆盖该方法返回一个拷贝，避免和调用者或其他树共享。
+	 */
+	protected E copyKey(E key) {
+		return key;
+	}
+	/**
+	 * 创建一棵与当前树使用相同比较器的空树，子类需要维护额外信息时覆盖该方法。
+	 */
+	protected RBTree<E> newTree() {
+		return new RBTree<>(comparator, poolCapacity);
+	}
+	private static final int UNION = 0;
+	private static final int INTERSECTION = 1;
+	private static final int DIFFERENCE = 2;
+	/**
+	 * 两棵子树的大小之和超过该值时才并行计算。
+	 */
+	private static final int PARALLEL_THRESHOLD = 1 << 13;
+	/**
+	 * 以黑色节点（或null）为根的子树以及它的黑高，黑高为根到叶子路径上黑色节点的个数（包括根）。
+	 */
+	private static final class Part<E> {
+		final Node<E> root;
+		final int blackHeight;
+		Part(Node<E> root, int blackHeight) {
+			this.root = root;
+			this.blackHeight = blackHeight;
+		}
+	}
+	private static final class Split<E> {
+		Part<E> left;
+		Node<E> found;
+		Part<E> right;
+		Split(Part<E> left, Node<E> found, Part<E> right) {
+			this.left = left;
+			this.found = found;
+			this.right = right;
+		}
+	}
+	@SuppressWarnings("rawtypes")
+	private static final Part EMPTY = new Part<>(null, 0);
+	@SuppressWarnings("unchecked")
+	private static <E> Part<E> emptyPart() {
+		return EMPTY;
+	}
+	private void checkComparator(RBTree<E> other) {
+		if (!Objects.equals(comparator, other.comparator))
+			throw new IllegalArgumentException("trees use different comparators");
+	}
+	private void setOperation(int op, RBTree<E> other, boolean parallel) {
+		checkComparator(other);
+		if (other == this) {
+			if (op == DIFFERENCE) {
+				recycleAll(root);
+				setRoot(emptyPart());
+			}
+			return;
+		}
+		Part<E> a = whole(), b = other.whole();
+		if (parallel) {
+			Queue<Node<E>> discarded = new ConcurrentLinkedQueue<>();
+			setRoot(ForkJoinPool.commonPool().invoke(new SetOperationTask(op, a, b, discarded)));
+			for (Node<E> p : discarded)
+				recycleAll(p);
+		} else {
+			setRoot(setOperation(op, a, b, null));
+		}
+		other.setRoot(emptyPart());
+	}
+	private final class SetOperationTask extends RecursiveTask<Part<E>> {
+		private static final long serialVersionUID = 1L;
+		private final int op;
+		private final Part<E> a, b;
+		private final Queue<Node<E>> discarded;
+		SetOperationTask(int op, Part<E> a, Part<E> b, Queue<Node<E>> discarded) {
+			this.op = op;
+			this.a = a;
+			this.b = b;
+			this.discarded = discarded;
+		}
+		@Override
+		protected Part<E> compute() {
+			return setOperation(op, a, b, discarded);
+		}
+	}
+	/**
+	 * 用b的根分割a，递归地对左右两部分分别求解，再用join或join2合并。
+	 * discarded为null时顺序计算，结果中不再需要的节点直接回收；否则并行计算，
+	 * 因为节点池不是线程安全的，这些节点先放入discarded，结束后由调用线程回收。
+	 */
+	private Part<E> setOperation(int op, Part<E> a, Part<E> b, Queue<Node<E>> discarded) {
+		if (a.root == null) {
+			if (op == UNION)
+				return b;
+			discard(b.root, discarded);
+			return a;
+		}
+		if (b.root == null) {
+			if (op != INTERSECTION)
+				return a;
+			discard(a.root, discarded);
+			return b;
+		}
+		boolean parallel = discarded != null;
+		boolean fork = parallel && countOf(a.root) + countOf(b.root) > PARALLEL_THRESHOLD;
+		Node<E> m = b.root;
+		Part<E> bl = detach(m.left, b.blackHeight - 1);
+		Part<E> br = detach(m.right, b.blackHeight - 1);
+		Split<E> s = split(a, m.value);
+		Part<E> l, r;
+		if (fork) {
+			SetOperationTask task = new SetOperationTask(op, s.left, bl, discarded);
+			task.fork();
+			r = setOperation(op, s.right, br, discarded);
+			l = task.join();
+		} else {
+			l = setOperation(op, s.left, bl, discarded);
+			r = setOperation(op, s.right, br, discarded);
+		}
+		if (s.found != null)
+			discard(s.found, discarded); // m代替a中相等的节点，或者两者都被丢弃
+		if (op == UNION || (op == INTERSECTION && s.found != null))
+			return join(l, m, r);
+		m.left = m.right = null; // 孩子已经分离
+		discard(m, discarded);
+		return join2(l, r);
+	}
+	/**
+	 * 回收集合运算中丢弃的子树p，见{@link #setOperation(int, Part, Part, Queue)}。
+	 */
+	private void discard(Node<E> p, Queue<Node<E>> discarded) {
+		if (p == null || poolCapacity == 0)
+			return;
+		if (discarded == null)
+			recycleAll(p);
+		else
+			discarded.add(p);
+	}
+	private Part<E> whole() {
+		int blackHeight = 0;
+		for (Node<E> p = root; p != null; p = p.left)
+			if (p.color == BLACK)
+				blackHeight++;
+		return new Part<>(root, blackHeight);
+	}
+	private void setRoot(Part<E> part) {
+		root = part.root;
+		size = countOf(root);
+		modCount++;
+	}
+	/**
+	 * 把子树p从父亲节点上分离出来，红色的根改为黑色，黑高加1。
+	 * @param blackHeight p的黑高
+	 */
+	private static <E> Part<E> detach(Node<E> p, int blackHeight) {
+		if (p == null)
+			return emptyPart();
+		p.parent = null;
+		if (p.color == RED) {
+			p.color = BLACK;
+			blackHeight++;
+		}
+		return new Part<>(p, blackHeight);
+	}
+	/**
+	 * 把t分割成小于key和大于key的两部分，等于key的节点保存在found中。
+	 */
+	private Split<E> split(Part<E> t, E key) {
+		Node<E> p = t.root;
+		if (p == null)
+			return new Split<>(emptyPart(), null, emptyPart());
+		Part<E> l = detach(p.left, t.blackHeight - 1);
+		Part<E> r = detach(p.right, t.blackHeight - 1);
+		int cmp = cmp(key, p.value);
+		if (cmp == 0) {
+			p.left = p.right = null;
+			return new Split<>(l, p, r);
+		}
+		if (cmp < 0) {
+			Split<E> s = split(l, key);
+			s.right = join(s.right, p, r);
+			return s;
+		} else {
+			Split<E> s = split(r, key);
+			s.left = join(l, p, s.left);
+			return s;
+		}
+	}
+	/**
+	 * 连接tl、m和tr，要求tl的元素都小于m，tr的元素都大于m。
+	 * 黑高较大的一边沿着右（左）边界往下走，直到遇到黑高相同的黑色节点，把m作为红色节点插入，
+	 * 再向上用一次旋转消除连续的红色节点，复杂度为O(|bh(tl) - bh(tr)| + 1)。
+	 */
+	private Part<E> join(Part<E> tl, Node<E> m, Part<E> tr) {
+		Node<E> t;
+		int blackHeight;
+		if (tl.blackHeight > tr.blackHeight) {
+			t = joinRight(tl.root, tl.blackHeight, m, tr);
+			blackHeight = tl.blackHeight;
+		} else if (tl.blackHeight < tr.blackHeight) {
+			t = joinLeft(tl, m, tr.root, tr.blackHeight);
+			blackHeight = tr.blackHeight;
+		} else {
+			link(m, tl.root, tr.root);
+			m.color = BLACK;
+			updateNode(m);
+			return new Part<>(m, tl.blackHeight + 1);
+		}
+		t.parent = null;
+		if (t.color == RED) {
+			t.color = BLACK;
+			blackHeight++;
+		}
+		return new Part<>(t, blackHeight);
+	}
+	private Node<E> joinRight(Node<E> tl, int blackHeight, Node<E> m, Part<E> tr) {
+		if (colorOf(tl) == BLACK && blackHeight == tr.blackHeight) {
+			link(m, tl, tr.root);
+			m.color = RED;
+			updateNode(m);
+			return m;
+		}
+		Node<E> r = joinRight(tl.right, tl.color == BLACK ? blackHeight - 1 : blackHeight, m, tr);
+		tl.right = r;
+		r.parent = tl;
+		if (tl.color == BLACK && r.color == RED && colorOf(r.right) == RED) {
+			r.right.color = BLACK;
+			tl.right = r.left;
+			if (r.left != null)
+				r.left.parent = tl;
+			r.left = tl;
+			tl.parent = r;
+			updateNode(tl);
+			updateNode(r);
+			return r;
+		}
+		updateNode(tl);
+		return tl;
+	}
+	private Node<E> joinLeft(Part<E> tl, Node<E> m, Node<E> tr, int blackHeight) {
+		if (colorOf(tr) == BLACK && blackHeight == tl.blackHeight) {
+			link(m, tl.root, tr);
+			m.color = RED;
+			updateNode(m);
+			return m;
+		}
+		Node<E> l = joinLeft(tl, m, tr.left, tr.color == BLACK ? blackHeight - 1 : blackHeight);
+		tr.left = l;
+		l.parent = tr;
+		if (tr.color == BLACK && l.color == RED && colorOf(l.left) == RED) {
+			l.left.color = BLACK;
+			tr.left = l.right;
+			if (l.right != null)
+				l.right.parent = tr;
+			l.right = tr;
+			tr.parent = l;
+			updateNode(tr);
+			updateNode(l);
+			return l;
+		}
+		updateNode(tr);
+		return tr;
+	}
+	/**
+	 * 连接tl和tr，要求tl的元素都小于tr的元素。先从tl中取出最大的节点，再用它连接两部分。
+	 */
+	private Part<E> join2(Part<E> tl, Part<E> tr) {
+		if (tl.root == null)
+			return tr;
+		if (tr.root == null)
+			return tl;
+		Split<E> s = splitLast(tl);
+		return join(s.left, s.found, tr);
+	}
+	private Split<E> splitLast(Part<E> t) {
+		Node<E> p = t.root;
+		Part<E> l = detach(p.left, t.blackHeight - 1);
+		if (p.right == null) {
+			p.left = null;
+			return new Split<>(l, p, null);
+		}
+		Split<E> s = splitLast(detach(p.right, t.blackHeight - 1));
+		s.left = join(l, p, s.left);
+		return s;
+	}
+	private static <E> void link(Node<E> m, Node<E> left, Node<E> right) {
+		m.left = left;
+		m.right = right;
+		m.parent = null;
+		if (left != null)
+			left.parent = m;
+		if (right != null)
+			right.parent = m;
+	}
 	private final static class NodeWithLevel<E> {
 		Node<E> node;
 		int level;
@@ -131,17 +963,112 @@ public class RBTree<E> {
 	}
 	public List<E> toList() {
 		List<E> list = new ArrayList<>(size);
-		dumpToList(root, list);
+		for (Node<E> p = getFirstNode(); p != null; p = successor(p))
+			list.add(p.value);
 		return list;
 	}
-	private void dumpToList(Node<E> p, List<E> list) {
-		if (p == null)
-			return;
-		if (p.left != null)
-			dumpToList(p.left, list);
-		list.add(p.getValue());
-		if (p.right != null)
-			dumpToList(p.right, list);
+	/**
+	 * 返回按递增顺序遍历的迭代器，沿着后继指针移动，不复制元素。
+	 */
+	@Override
+	public Iterator<E> iterator() {
+		return new ValueIterator(getFirstNode(), null);
+	}
+	/**
+	 * 返回可以按子树切分的Spliterator，第一次切分在根节点，之后在各部分子树的根节点切分。
+	 */
+	@Override
+	public Spliterator<E> spliterator() {
+		return new ValueSpliterator(null, null, 0, -1, 0);
+	}
+	public Stream<E> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+	public Stream<E> parallelStream() {
+		return StreamSupport.stream(spliterator(), true);
+	}
+	/**
+	 * 遍历[current, fence)范围内的节点，切分方法同java.util.TreeMap：
+	 * side为0表示还没有切分过，从根节点切分；side大于0表示当前部分是某个子树的右半部分，
+	 * 从current的右孩子切分；side小于0表示左半部分，从fence的左孩子切分。
+	 */
+	final class ValueSpliterator implements Spliterator<E> {
+		private Node<E> current; // 下一个节点，为null且est<0时表示还没有初始化
+		private Node<E> fence; // 结束节点（不包含），null表示到最后
+		private int side;
+		private int est; // 元素个数的估计值，-1表示还没有初始化
+		private int expectedModCount;
+		ValueSpliterator(Node<E> origin, Node<E> fence, int side, int est, int expectedModCount) {
+			this.current = origin;
+			this.fence = fence;
+			this.side = side;
+			this.est = est;
+			this.expectedModCount = expectedModCount;
+		}
+		private int getEstimate() {
+			int s;
+			if ((s = est) < 0) {
+				s = est = size;
+				expectedModCount = modCount;
+				current = getFirstNode();
+			}
+			return s;
+		}
+		@Override
+		public Spliterator<E> trySplit() {
+			if (est < 0)
+				getEstimate();
+			int d = side;
+			Node<E> e = current, f = fence;
+			Node<E> s = (e == null || e == f) ? null
+					: d == 0 ? root
+					: d > 0 ? e.right
+					: f != null ? f.left : null;
+			if (s != null && s != e && s != f && cmp(e.value, s.value) < 0) {
+				side = 1;
+				return new ValueSpliterator(e, current = s, -1, est >>>= 1, expectedModCount);
+			}
+			return null;
+		}
+		@Override
+		public boolean tryAdvance(Consumer<? super E> action) {
+			Objects.requireNonNull(action);
+			if (est < 0)
+				getEstimate();
+			Node<E> e = current;
+			if (e == null || e == fence)
+				return false;
+			current = successor(e);
+			action.accept(e.value);
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+			return true;
+		}
+		@Override
+		public void forEachRemaining(Consumer<? super E> action) {
+			Objects.requireNonNull(action);
+			if (est < 0)
+				getEstimate();
+			Node<E> f = fence, e = current;
+			current = f;
+			for (; e != null && e != f; e = successor(e))
+				action.accept(e.value);
+			if (modCount != expectedModCount)
+				throw new ConcurrentModificationException();
+		}
+		@Override
+		public long estimateSize() {
+			return getEstimate();
+		}
+		@Override
+		public int characteristics() {
+			return (side == 0 ? Spliterator.SIZED : 0) | Spliterator.DISTINCT | Spliterator.SORTED
+					| Spliterator.ORDERED | Spliterator.NONNULL;
+		}
+		@Override
+		public Comparator<? super E> getComparator() {
+			return comparator;
+		}
 	}
 	static final class Node<E> {
 		E value;
@@ -149,6 +1076,7 @@ public class RBTree<E> {
 		Node<E> right;
 		Node<E> parent;
 		boolean color = BLACK;
+		int count = 1; // 子树中节点的总数
 		Node(E value, Node<E> parent) {
 			this.value = value;
 			this.parent = parent;
@@ -181,6 +1109,9 @@ public class RBTree<E> {
 			return hash;
 		}
 	}
+	final Node<E> getRoot() {
+		return root;
+	}
 	final Node<E> getFirstNode() {
 		Node<E> p = root;
 		if (p != null)
@@ -214,6 +1145,7 @@ public class RBTree<E> {
 				p.parent.left = replacement;
 			else
 				p.parent.right = replacement;
+			updateAncestors(p.parent);
 			p.left = p.right = p.parent = null;
 			if (p.color == BLACK)
 				fixAfterDeletion(replacement);
@@ -223,13 +1155,17 @@ public class RBTree<E> {
 			if (p.color == BLACK)
 				fixAfterDeletion(p);
 			if (p.parent != null) {
-				if (p == p.parent.left)
-					p.parent.left = null;
-				else if (p == p.parent.right)
-					p.parent.right = null;
+				Node<E> parent = p.parent;
+				if (p == parent.left)
+					parent.left = null;
+				else if (p == parent.right)
+					parent.right = null;
 				p.parent = null;
+				// 调整时p还在树中，旋转后的节点信息都包含p，删除后重新计算p的所有祖先
+				updateAncestors(parent);
 			}
 		}
+		recycle(p);
 	}
 	static <E> Node<E> successor(Node<E> t) {
 		if (t == null)
@@ -298,6 +1234,8 @@ public class RBTree<E> {
 				p.parent.right = r;
 			r.left = p;
 			p.parent = r;
+			updateNode(p);
+			updateNode(r);
 		}
 	}
 	private void rotateRight(Node<E> p) {
@@ -315,6 +1253,8 @@ public class RBTree<E> {
 				p.parent.left = l;
 			l.right = p;
 			p.parent = l;
+			updateNode(p);
+			updateNode(l);
 		}
 	}
 	private void fixAfterInsertion(Node<E> x) {
@@ -0,0 +1,303 @@
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicMarkableReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free SkipList (Herlihy &amp; Shavit, "The Art of Multiprocessor Programming", 14.4).
+ * Every node owns one tower of forward links; each link is an {@link AtomicMarkableReference}
+ * whose mark means the owning node is logically deleted. {@code add} and {@code remove}
+ * link and unlink nodes with CAS, and searches physically snip out marked nodes they pass.
+ * {@code contains} never writes and never retries, so it is wait-free.
+ * @author fgp
+ * @see SkipList
+ * @param <E> the type of elements held in this list
+ */
+public class ConcurrentSkipList<E> implements Iterable<E> {
+	private static final int MAX_LEVEL = 32;
+	private final Comparator<E> comparator;
+	private final Node<E> head = new Node<>(null, MAX_LEVEL - 1);
+	private final Node<E> tail = new Node<>(null, MAX_LEVEL - 1);
+	/**
+	 * Highest level any node has reached; searches start here instead of at MAX_LEVEL.
+	 * Levels above it hold no nodes, so a stale value only costs a few extra hops.
+	 */
+	private final AtomicInteger topLevel = new AtomicInteger();
+	private final LongAdder size = new LongAdder();
+	/**
+	 * Constructs a SkipList with the Comparator of elements
+	 * @param comparator the Comparator of the elements
+	 */
+	public ConcurrentSkipList(Comparator<E> comparator) {
+		this.comparator = comparator;
+		for (int i = 0; i < MAX_LEVEL; ++i) {
+			head.next[i] = new AtomicMarkableReference<>(tail, false);
+			tail.next[i] = new AtomicMarkableReference<>(null, false);
+		}
+	}
+	/**
+	 * Constructs a empty list.
+	 */
+	public ConcurrentSkipList() {
+		this(null);
+	}
+	/**
+	 * Compares the value of p with e, treating head as minus infinity and tail as plus infinity.
+	 */
+	private int cmp(Node<E> p, E e) {
+		if (p == head)
+			return -1;
+		if (p == tail)
+			return 1;
+		if (comparator != null)
+			return comparator.compare(p.value, e);
+		@SuppressWarnings("unchecked")
+		Comparable<? super E> c = (Comparable<? super E>)p.value;
+		return c.compareTo(e);
+	}
+	private static int randomLevel() {
+		// level i is reached with probability 1/2^i
+		return Integer.numberOfTrailingZeros(ThreadLocalRandom.current().nextInt() | (1 << (MAX_LEVEL - 1)));
+	}
+	/**
+	 * Fills preds/succs with the nodes around e on every level up to the current top level,
+	 * unlinking marked nodes on the way.
+	 * @return true if an unmarked node equal to e was found at level 0
+	 */
+	private boolean find(E e, Node<E>[] preds, Node<E>[] succs) {
+		boolean[] marked = {false};
+		retry:
+		while (true) {
+			Node<E> pred = head;
+			Node<E> curr = null;
+			for (int level = MAX_LEVEL - 1; level >= 0; --level) {
+				if (level > topLevel.get()) {
+					preds[level] = head;
+					succs[level] = tail;
+					continue;
+				}
+				curr = pred.next[level].getReference();
+				while (true) {
+					Node<E> succ = curr.next[level].get(marked);
+					while (marked[0]) {
+						if (!pred.next[level].compareAndSet(curr, succ, false, false))
+							continue retry;
+						curr = succ;
+						succ = curr.next[level].get(marked);
+					}
+					if (cmp(curr, e) < 0) {
+						pred = curr;
+						curr = succ;
+					} else {
+						break;
+					}
+				}
+				preds[level] = pred;
+				succs[level] = curr;
+			}
+			return cmp(curr, e) == 0;
+		}
+	}
+	/**
+	 * Returns true if this list contains the specified element
+	 * @param e element whose presence in this list to be tested
+	 * @return true if this list contains the specified element
+	 */
+	public boolean contains(E e) {
+		if (e == null)
+			throw new NullPointerException();
+		boolean[] marked = {false};
+		Node<E> pred = head;
+		Node<E> curr = null;
+		for (int level = topLevel.get(); level >= 0; --level) {
+			curr = pred.next[level].getReference();
+			while (true) {
+				Node<E> succ = curr.next[level].get(marked);
+				while (marked[0]) {
+					curr = succ;
+					succ = curr.next[level].get(marked);
+				}
+				if (cmp(curr, e) < 0) {
+					pred = curr;
+					curr = succ;
+				} else {
+					break;
+				}
+			}
+		}
+		return cmp(curr, e) == 0;
+	}
+	/**
+	 * Inserts the specified element to this list
+	 * @param e the element to add
+	 * @return true if this list is changed after call this.
+	 */
+	public boolean add(E e) {
+		if (e == null)
+			throw new NullPointerException();
+		int level = randomLevel();
+		for (int top = topLevel.get(); level > top && !topLevel.compareAndSet(top, level); top = topLevel.get())
+			;
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Node<E>[] preds = new Node[MAX_LEVEL];
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Node<E>[] succs = new Node[MAX_LEVEL];
+		while (true) {
+			if (find(e, preds, succs))
+				return false;
+			Node<E> node = new Node<>(e, level);
+			for (int i = 0; i <= level; ++i)
+				node.next[i] = new AtomicMarkableReference<>(succs[i], false);
+			// the node is in the list once it is linked at level 0
+			if (!preds[0].next[0].compareAndSet(succs[0], node, false, false))
+				continue;
+			size.increment();
+			for (int i = 1; i <= level; ++i) {
+				while (true) {
+					Node<E> pred = preds[i], succ = succs[i];
+					// after a retry the successor may have changed; stop if the node is being removed
+					Node<E> old = node.next[i].getReference();
+					if (old != succ && !node.next[i].compareAndSet(old, succ, false, false))
+						return true;
+					if (pred.next[i].compareAndSet(succ, node, false, false))
+						break;
+					if (!find(e, preds, succs) || succs[0] != node)
+						return true;
+				}
+			}
+			return true;
+		}
+	}
+	/**
+	 * Removes the specified element
+	 * @param e the element to be removed
+	 * @return true if  this list contained the specified element
+	 */
+	public boolean remove(E e) {
+		if (e == null)
+			throw new NullPointerException();
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Node<E>[] preds = new Node[MAX_LEVEL];
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Node<E>[] succs = new Node[MAX_LEVEL];
+		if (!find(e, preds, succs))
+			return false;
+		return removeNode(succs[0], preds, succs);
+	}
+	/**
+	 * Marks the tower of node from the top down; whoever marks level 0 owns the removal.
+	 */
+	private boolean removeNode(Node<E> node, Node<E>[] preds, Node<E>[] succs) {
+		boolean[] marked = {false};
+		for (int i = node.topLevel; i >= 1; --i) {
+			Node<E> succ = node.next[i].get(marked);
+			while (!marked[0]) {
+				node.next[i].compareAndSet(succ, succ, false, true);
+				succ = node.next[i].get(marked);
+			}
+		}
+		Node<E> succ = node.next[0].get(marked);
+		while (true) {
+			boolean done = node.next[0].compareAndSet(succ, succ, false, true);
+			succ = node.next[0].get(marked);
+			if (done) {
+				size.decrement();
+				find(node.value, preds, succs); // unlink physically
+				return true;
+			} else if (marked[0]) {
+				return false;
+			}
+		}
+	}
+	/**
+	 * Removes and returns the smallest element, or null if this list is empty.
+	 */
+	public E pollFirst() {
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Node<E>[] preds = new Node[MAX_LEVEL];
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Node<E>[] succs = new Node[MAX_LEVEL];
+		while (true) {
+			Node<E> first = firstNode();
+			if (first == null)
+				return null;
+			if (removeNode(first, preds, succs))
+				return first.value;
+		}
+	}
+	/**
+	 * Returns the smallest element, or null if this list is empty.
+	 */
+	public E peekFirst() {
+		Node<E> first = firstNode();
+		return first == null ? null : first.value;
+	}
+	private Node<E> firstNode() {
+		Node<E> p = head.next[0].getReference();
+		while (p != tail && p.next[0].isMarked())
+			p = p.next[0].getReference();
+		return p == tail ? null : p;
+	}
+	/**
+	 * Returns the number of elements in this list. The value is exact only when no update is in progress.
+	 * @return the number of elements in this list
+	 */
+	public int size() {
+		long n = size.sum();
+		return n > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int)Math.max(0, n);
+	}
+	public boolean isEmpty() {
+		return firstNode() == null;
+	}
+	/**
+	 * Returns a weakly consistent iterator in ascending order: it never throws
+	 * ConcurrentModificationException and reflects some of the updates made after it was created.
+	 */
+	@Override
+	public Iterator<E> iterator() {
+		return new Iterator<E>() {
+			private Node<E> next = firstNode();
+			private Node<E> lastRet;
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+			@Override
+			public E next() {
+				if (next == null)
+					throw new NoSuchElementException();
+				lastRet = next;
+				Node<E> p = next.next[0].getReference();
+				while (p != tail && p.next[0].isMarked())
+					p = p.next[0].getReference();
+				next = p == tail ? null : p;
+				return lastRet.value;
+			}
+			@Override
+			public void remove() {
+				if (lastRet == null)
+					throw new IllegalStateException();
+				ConcurrentSkipList.this.remove(lastRet.value);
+				lastRet = null;
+			}
+		};
+	}
+	static final class Node<E> {
+		final E value;
+		final AtomicMarkableReference<Node<E>>[] next;
+		final int topLevel;
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Node(E value, int topLevel) {
+			this.value = value;
+			this.topLevel = topLevel;
+			this.next = new AtomicMarkableReference[topLevel + 1];
+		}
+		@Override
+		public String toString() {
+			return String.valueOf(value);
+		}
+	}
+}
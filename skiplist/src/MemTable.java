@@ -0,0 +1,250 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory write buffer in front of sorted run files.
+ * Records go into an active {@link SkipList} whose approximate size is tracked through a
+ * {@link RecordSerializer}. When it reaches the threshold the list is frozen and handed to a
+ * background thread, which writes its bottom level to a new {@link SortedRun} file, while
+ * writes continue into a fresh list. Frozen lists stay readable until their run is on disk.
+ * <p>If a flush fails, its list is kept and {@link #add} throws the failure until
+ * {@link #retryFlushes()} schedules the list again; {@link #close()} retries it once by itself.
+ * <p>All methods are thread-safe.
+ * @author fgp
+ * @param <E> the type of records
+ */
+public class MemTable<E> implements Closeable {
+	/**
+	 * Approximate per-record cost of a skip list node: object header, fields and the
+	 * next/span arrays of an average tower.
+	 */
+	private static final int NODE_OVERHEAD = 64;
+	private static final Pattern RUN_NAME = Pattern.compile("run-(\\d+)\\.sst");
+	private final Path directory;
+	private final Comparator<E> comparator;
+	private final RecordSerializer<E> serializer;
+	private final long thresholdBytes;
+	private final int blockSize;
+	private final ExecutorService flusher;
+	private SkipList<E> active;
+	private long activeBytes;
+	/**
+	 * Frozen lists waiting to be flushed, oldest first.
+	 */
+	private final List<SkipList<E>> immutables = new ArrayList<>();
+	private final List<Path> runs = new ArrayList<>();
+	/**
+	 * Frozen lists whose flush failed, with the run file they are to be written to.
+	 */
+	private final Map<SkipList<E>, Path> failed = new IdentityHashMap<>();
+	private int nextRun;
+	private IOException flushFailure;
+	private boolean closed;
+	/**
+	 * Constructs a memtable that flushes to directory
+	 * @param directory where run files are written, must exist
+	 * @param comparator the order of records, null for natural ordering
+	 * @param serializer sizes and serializes records
+	 * @param thresholdBytes approximate size at which the active list is frozen and flushed
+	 * @throws IOException if directory cannot be listed
+	 */
+	public MemTable(Path directory, Comparator<E> comparator, RecordSerializer<E> serializer, long thresholdBytes) throws IOException {
+		this(directory, comparator, serializer, thresholdBytes, SortedRun.DEFAULT_BLOCK_SIZE);
+	}
+	/**
+	 * Runs already in directory (for example from before a restart) are kept: new runs are
+	 * numbered after the highest existing one.
+	 * @param blockSize uncompressed size of the blocks of the run files
+	 * @throws IOException if directory cannot be listed
+	 */
+	public MemTable(Path directory, Comparator<E> comparator, RecordSerializer<E> serializer, long thresholdBytes, int blockSize)
+			throws IOException {
+		if (thresholdBytes <= 0)
+			throw new IllegalArgumentException("thresholdBytes must be positive: " + thresholdBytes);
+		if (blockSize <= 0)
+			throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+		this.directory = directory;
+		this.comparator = comparator;
+		this.serializer = serializer;
+		this.thresholdBytes = thresholdBytes;
+		this.blockSize = blockSize;
+		this.active = new SkipList<>(comparator);
+		this.nextRun = scanRuns();
+		this.flusher = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "memtable-flusher");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+	/**
+	 * Adds the run files already in directory to runs, oldest first.
+	 * @return the number to give the next run
+	 */
+	private int scanRuns() throws IOException {
+		TreeMap<Integer, Path> existing = new TreeMap<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "run-*.sst")) {
+			for (Path p : stream) {
+				int n = runNumber(p);
+				if (n >= 0)
+					existing.put(n, p);
+			}
+		}
+		runs.addAll(existing.values());
+		return existing.isEmpty() ? 0 : existing.lastKey() + 1;
+	}
+	/**
+	 * Returns the number in the name of run file p, or -1 if p is not named like a run file
+	 */
+	private static int runNumber(Path p) {
+		Matcher m = RUN_NAME.matcher(p.getFileName().toString());
+		return m.matches() ? Integer.parseInt(m.group(1)) : -1;
+	}
+	/**
+	 * Inserts e into the active list, freezing and scheduling a flush of it if the threshold is reached
+	 * @param e the record to add
+	 * @return true if the active list did not already contain e
+	 * @throws IOException if an earlier flush failed and has not been retried; a RuntimeException
+	 * thrown by the serializer during the flush is reported as the cause of an IOException
+	 */
+	public synchronized boolean add(E e) throws IOException {
+		if (closed)
+			throw new IllegalStateException("MemTable is closed");
+		if (flushFailure != null)
+			throw flushFailure;
+		if (!active.add(e))
+			return false;
+		activeBytes += serializer.sizeOf(e) + NODE_OVERHEAD;
+		if (activeBytes >= thresholdBytes)
+			rotate();
+		return true;
+	}
+	/**
+	 * Returns true if e is in the active list or in a frozen list not yet flushed.
+	 * Records already flushed are read through {@link SortedRun}.
+	 */
+	public synchronized boolean contains(E e) {
+		if (active.contains(e))
+			return true;
+		for (int i = immutables.size() - 1; i >= 0; --i) {
+			if (immutables.get(i).contains(e))
+				return true;
+		}
+		return false;
+	}
+	/**
+	 * Returns the approximate size of the active list in bytes
+	 */
+	public synchronized long approximateBytes() {
+		return activeBytes;
+	}
+	/**
+	 * Returns the number of frozen lists still waiting to be written
+	 */
+	public synchronized int pendingFlushes() {
+		return immutables.size();
+	}
+	/**
+	 * Returns the run files in directory, oldest first: those found when this memtable was
+	 * constructed followed by those it has written
+	 */
+	public synchronized List<Path> runs() {
+		return Collections.unmodifiableList(new ArrayList<>(runs));
+	}
+	/**
+	 * Freezes the active list, if it is not empty, and schedules it to be flushed.
+	 */
+	public synchronized void flush() {
+		if (active.size() > 0)
+			rotate();
+	}
+	private void rotate() {
+		final SkipList<E> frozen = active;
+		frozen.freeze();
+		immutables.add(frozen);
+		final Path path = directory.resolve(String.format("run-%06d.sst", nextRun++));
+		active = new SkipList<>(comparator);
+		activeBytes = 0;
+		flusher.execute(() -> write(frozen, path));
+	}
+	/**
+	 * Schedules the frozen lists whose flush failed to be written again, oldest first, and
+	 * clears the failure so that {@link #add} is accepted again. The lists stay readable
+	 * through {@link #contains} until they are on disk.
+	 */
+	public synchronized void retryFlushes() {
+		if (closed)
+			throw new IllegalStateException("MemTable is closed");
+		reschedule();
+	}
+	private void reschedule() {
+		flushFailure = null;
+		for (SkipList<E> frozen : immutables) {
+			Path path = failed.remove(frozen);
+			if (path != null)
+				flusher.execute(() -> write(frozen, path));
+		}
+	}
+	private void write(SkipList<E> frozen, Path path) {
+		try {
+			SortedRun.write(path, frozen, serializer, blockSize);
+			synchronized (this) {
+				// a retried run may finish after newer ones; keep runs in the order of their numbers
+				int i = runs.size();
+				while (i > 0 && runNumber(runs.get(i - 1)) > runNumber(path))
+					--i;
+				runs.add(i, path);
+				immutables.remove(frozen);
+			}
+		} catch (IOException | RuntimeException e) {
+			// an exception from the serializer must not kill the flusher silently
+			IOException failure = e instanceof IOException ? (IOException)e : new IOException("Failed to flush " + path, e);
+			synchronized (this) {
+				failed.put(frozen, path);
+				if (flushFailure == null)
+					flushFailure = failure;
+			}
+		}
+	}
+	/**
+	 * Flushes the active list, retries failed flushes once and waits until every frozen list is written.
+	 * @throws IOException if a flush failed
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed)
+				return;
+			closed = true;
+			reschedule();
+			if (active.size() > 0)
+				rotate();
+		}
+		flusher.shutdown();
+		try {
+			while (!flusher.awaitTermination(1, TimeUnit.SECONDS))
+				;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while flushing", e);
+		}
+		synchronized (this) {
+			if (flushFailure != null)
+				throw flushFailure;
+		}
+	}
+}
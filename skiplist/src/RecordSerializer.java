@@ -0,0 +1,32 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts records to and from bytes for {@link MemTable} and {@link SortedRun}.
+ * @author fgp
+ * @param <E> the type of records
+ */
+public interface RecordSerializer<E> {
+	/**
+	 * Returns the approximate number of bytes e occupies in memory, used for memtable accounting.
+	 * It does not need to match the serialized size.
+	 * @param e the record
+	 * @return the approximate size of e in bytes
+	 */
+	int sizeOf(E e);
+	/**
+	 * Writes e to out
+	 * @param e the record to write
+	 * @param out the destination
+	 * @throws IOException if out fails
+	 */
+	void write(E e, DataOutput out) throws IOException;
+	/**
+	 * Reads a record written by {@link #write(Object, DataOutput)}
+	 * @param in the source
+	 * @return the record
+	 * @throws IOException if in fails or is truncated
+	 */
+	E read(DataInput in) throws IOException;
+}
@@ -1,10 +1,10 @@
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.ListIterator;
 import java.util.NoSuchElementException;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * SkipList implemented in java
@@ -15,20 +15,97 @@ import java.util.Random;
  */
 public class SkipList<E> implements Iterable<E> {
 	
-	private ArrayList<LinkedList<E>> list;
+	/**
+	 * Sentinel whose tower links to the first node of every level.
+	 * Its tower grows when a node taller than the current height is inserted.
+	 */
+	private final Node<E> head;
+	/**
+	 * Last node of the bottom level, or null if this list is empty.
+	 */
+	private Node<E> tail;
+	/**
+	 * Number of levels in use, at least 1.
+	 */
+	private int level = 1;
 	private final Comparator<E> comparator;
 	private int modCount = 0;
 	private int size = 0;
+	private volatile boolean frozen;
 	private static final int INIT_LEVEL = 5;
-	private static final Random random = new Random();
+	private static final int DEFAULT_MAX_LEVEL = 32;
+	/**
+	 * A node is promoted to the next level with probability p = 1 / 2^probabilityShift.
+	 */
+	private final int probabilityShift;
+	private final int maxLevel;
+	/**
+	 * levelHistogram[i] is the number of elements whose height is i + 1.
+	 */
+	private final int[] levelHistogram;
 	/**
 	 * Constructs a SkipList with the Comparator of elements
 	 * @param comparator the Comparator of the elements
 	 */
 	public SkipList(Comparator<E> comparator) {
+		this(comparator, 0.5, DEFAULT_MAX_LEVEL);
+	}
+	/**
+	 * Constructs a SkipList with the given promotion probability and level cap.
+	 * A smaller p uses fewer links per element (1 / (1 - p) on average) at the cost of longer
+	 * searches on each level.
+	 * @param comparator the Comparator of the elements
+	 * @param p the probability that an element appearing on level i also appears on level i + 1,
+	 *          must be 1/2, 1/4, 1/8, ...
+	 * @param maxLevel the maximum height of an element, between 1 and 64
+	 * @throws IllegalArgumentException if p is not a power of 1/2 or maxLevel is out of range
+	 */
+	public SkipList(Comparator<E> comparator, double p, int maxLevel) {
+		int shift = -Math.getExponent(p);
+		if (!(p > 0 && p < 1) || Math.scalb(1.0, -shift) != p)
+			throw new IllegalArgumentException("p must be a power of 1/2: " + p);
+		if (maxLevel < 1 || maxLevel > 64)
+			throw new IllegalArgumentException("maxLevel must be between 1 and 64: " + maxLevel);
 		this.comparator = comparator;
-		list = new ArrayList<>(INIT_LEVEL);
-		list.add(new LinkedList<E>());
+		this.probabilityShift = shift;
+		this.maxLevel = maxLevel;
+		this.levelHistogram = new int[maxLevel];
+		head = new Node<E>(null, Math.min(INIT_LEVEL, maxLevel));
+		head.span[0] = 1;
+	}
+	/**
+	 * Constructs a SkipList tuned for about expectedSize elements: the level cap is
+	 * log_{1/p}(expectedSize), the height at which levels stop paying for themselves.
+	 * @param expectedSize the expected number of elements
+	 * @param p the promotion probability, must be 1/2, 1/4, 1/8, ...
+	 * @param comparator the Comparator of the elements
+	 */
+	public static <E> SkipList<E> withExpectedSize(long expectedSize, double p, Comparator<E> comparator) {
+		if (expectedSize < 0)
+			throw new IllegalArgumentException("expectedSize must not be negative: " + expectedSize);
+		int shift = -Math.getExponent(p);
+		int log2 = 64 - Long.numberOfLeadingZeros(Math.max(expectedSize - 1, 0)); // ceil(log2(expectedSize))
+		int maxLevel = shift > 0 ? Math.max(1, (log2 + shift - 1) / shift) : 1;
+		return new SkipList<E>(comparator, p, Math.min(maxLevel, 64));
+	}
+	/**
+	 * Returns the promotion probability p
+	 */
+	public double getProbability() {
+		return Math.scalb(1.0, -probabilityShift);
+	}
+	/**
+	 * Returns the maximum height of an element
+	 */
+	public int getMaxLevel() {
+		return maxLevel;
+	}
+	/**
+	 * Returns the level histogram: element i is the number of elements whose height is i + 1.
+	 * The histogram is maintained on every insert and remove, so this only copies it.
+	 */
+	public int[] levelHistogram() {
+		return levelHistogram.clone();
 	}
 	/**
 	 * Constructs a empty list.
@@ -36,48 +113,77 @@ public class SkipList<E> implements Iterable<E> {
 	public SkipList() {
 		this(null);
 	}
-	private static <E> boolean isHeader(Node<E> p) {
-		return p.getClass() == HeadNode.class;
-	}
-	private static <E> boolean isEnd(Node<E> p) {
-		return p.getClass() == EndNode.class;
-	}
-	private int cmp(Node<E> p1, Node<E> p2) {
-		
-		if (isHeader(p1) || isEnd(p2)) {
-			return -1;
-		}
+	private int cmp(E e1, E e2) {
 		if (comparator != null) {
-			return comparator.compare(p1.value, p2.value);
+			return comparator.compare(e1, e2);
 		}
 		@SuppressWarnings("unchecked")
-		Comparable<? super E> c = (Comparable<? super E>)p1.value;
-		return c.compareTo(p2.value);
+		Comparable<? super E> c = (Comparable<? super E>)e1;
+		return c.compareTo(e2);
 	}
+	/**
+	 * Returns the node holding key, or null if there is none.
+	 */
 	private Node<E> find(E key) {
-		Node<E> find = new Node<E>(key);
-		int cur = list.size() - 1;
-		Node<E> p = list.get(cur).getHeader();
-		while (true) {
-			while (cmp(find, p.next) > 0) {
-				p = p.next;
+		Node<E> p = head;
+		for (int i = level - 1; i >= 0; --i) {
+			Node<E> q;
+			while ((q = p.next[i]) != null) {
+				int c = cmp(q.value, key);
+				if (c < 0)
+					p = q;
+				else if (c == 0)
+					return q;
+				else
+					break;
+			}
+		}
+		return null;
+	}
+	/**
+	 * Fills update[i] with the last node on level i whose value is less than key,
+	 * and rank[i] with the position of update[i] (the head is at 0, the first element at 1).
+	 * @param rank receives the positions, may be null
+	 * @return the first node on the bottom level whose value is not less than key, or null
+	 */
+	private Node<E> findPredecessors(E key, Node<E>[] update, int[] rank) {
+		Node<E> p = head;
+		int r = 0;
+		for (int i = level - 1; i >= 0; --i) {
+			Node<E> q;
+			while ((q = p.next[i]) != null && cmp(q.value, key) < 0) {
+				r += p.span[i];
+				p = q;
 			}
-			if (cmp(find, p.next) == 0)
-				return p.next;
-			if (p.down != null)
-				p = p.down;
-			else {
-				return null;
+			update[i] = p;
+			if (rank != null)
+				rank[i] = r;
+		}
+		return p.next[0];
+	}
+	/**
+	 * Returns the node at position pos (1-based) and fills update[i] with its predecessor on level i.
+	 * @param update receives the predecessors, may be null
+	 */
+	private Node<E> nodeAt(int pos, Node<E>[] update) {
+		Node<E> p = head;
+		int r = 0;
+		for (int i = level - 1; i >= 0; --i) {
+			while (p.next[i] != null && r + p.span[i] < pos) {
+				r += p.span[i];
+				p = p.next[i];
 			}
-				
+			if (update != null)
+				update[i] = p;
 		}
+		return p.next[0];
 	}
 	/**
 	 * Returns the height of this list
 	 * @return the height of this list
 	 */
 	public int height() {
-		return list.size();
+		return level;
 	}
 	/**
 	 * Returns true if this list contains the specified element
@@ -85,25 +191,16 @@ public class SkipList<E> implements Iterable<E> {
 	 * @return true if this list contains the specified element
 	 */
 	public boolean contains(E e) {
-		Node<E> p = list.get(height() - 1).getHeader();
-		Node<E> find = new Node<E>(e);
-		while (true) {
-			while (cmp(find, p.next) > 0)
-				p = p.next;
-			if (cmp(find, p.next) == 0)
-				return true;
-			if (p.down != null)
-				p = p.down;
-			else
-				return false;
-		}
+		return find(e) != null;
 	}
-	private static int randomLevel() {
-		int k = 1;
-		while (random.nextBoolean()) {
-			++k;
-		}
-		return k;
+	/**
+	 * Draws a height from one random word: each group of probabilityShift trailing zero bits
+	 * is one promotion, which happens with probability 1 / 2^probabilityShift.
+	 */
+	private int randomLevel() {
+		long bits = ThreadLocalRandom.current().nextLong();
+		int k = 1 + Long.numberOfTrailingZeros(bits) / probabilityShift;
+		return Math.min(k, maxLevel);
 	}
 	/**
 	 * Inserts the specified element to this list
@@ -112,46 +209,53 @@ public class SkipList<E> implements Iterable<E> {
 	 */
 	public boolean add(E e) {
 		int newLevel = randomLevel();
-		int curLevel = height();
-		@SuppressWarnings("unchecked")
-		Node<E>[] last = new Node[curLevel];
-		int cur = curLevel - 1;
-		Node<E> p = list.get(cur).getHeader();
-		Node<E> toAdd = new Node<E>(e);
-		while (true) {
-			while (cmp(toAdd, p.next) > 0) {
-				p = p.next;
-			}
-			last[cur] = p;
-			if (p.down != null) {
-				p = p.down;
-				cur--;
-			} else {
-				break;
-			}
-		}
-		if (cmp(toAdd, p.next) == 0) {
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Node<E>[] update = new Node[Math.max(level, newLevel)];
+		int[] rank = new int[update.length];
+		Node<E> q = findPredecessors(e, update, rank);
+		if (q != null && cmp(q.value, e) == 0) {
 			return false;
 		}
-		assert(cur == 0);
-		Node<E> lastOne = null;
-		for (int i = 0; i < newLevel; ++i) {
-			Node<E> insertPosotion = null;
-			if (i >= curLevel) {
-				LinkedList<E> newList = new LinkedList<>(list.get(i - 1));
-				list.add(newList);
-				insertPosotion = newList.getHeader();
-			} else {
-				insertPosotion = last[i];
+		insert(e, newLevel, update, rank);
+		return true;
+	}
+	/**
+	 * Links a new node for e of height newLevel after update[i] on every level.
+	 * update and rank must be filled for the current height and have room for newLevel levels.
+	 */
+	private void insert(E e, int newLevel, Node<E>[] update, int[] rank) {
+		checkNotFrozen();
+		if (newLevel > level) {
+			if (newLevel > head.next.length) {
+				int capacity = Math.min(maxLevel, Math.max(newLevel, head.next.length * 2));
+				head.next = Arrays.copyOf(head.next, capacity);
+				head.span = Arrays.copyOf(head.span, capacity);
+			}
+			for (int i = level; i < newLevel; ++i) {
+				update[i] = head;
+				rank[i] = 0;
+				head.span[i] = size + 1; // the end of a level is at position size + 1
 			}
-			Node<E> newOne = new Node<E>(e);
-			newOne.down = lastOne;
-			lastOne = newOne;
-			insertAt(insertPosotion, newOne);
+			level = newLevel;
 		}
+		Node<E> node = new Node<E>(e, newLevel);
+		for (int i = 0; i < newLevel; ++i) {
+			node.next[i] = update[i].next[i];
+			update[i].next[i] = node;
+			node.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+			update[i].span[i] = rank[0] - rank[i] + 1;
+		}
+		for (int i = newLevel; i < level; ++i) {
+			update[i].span[i]++;
+		}
+		node.prev = update[0] == head ? null : update[0];
+		if (node.next[0] != null)
+			node.next[0].prev = node;
+		else
+			tail = node;
+		levelHistogram[newLevel - 1]++;
 		++modCount;
 		++size;
-		return true;
 	}
 	/**
 	 * Removes the specified element
@@ -159,130 +263,441 @@ public class SkipList<E> implements Iterable<E> {
 	 * @return true if  this list contained the specified element
 	 */
 	public boolean remove(E e) {
-		Node<E> p = find(e);
-		if (p == null)
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Node<E>[] update = new Node[level];
+		Node<E> p = findPredecessors(e, update, null);
+		if (p == null || cmp(p.value, e) != 0)
 			return false;
-		while (p != null) {
-			Node<E> down = p.down;
-			removeNode(p);
-			p = down;
-		}
-		--size;
-		++modCount;
+		removeNode(p, update);
 		return true;
 	}
-	private void removeNode(Node<E> p) {
-		p.prev.next = p.next;
-		p.next.prev = p.prev;
-		p.value = null;
-		p.next = null;
-		p.prev = null;
-		p.down = null;
+	/**
+	 * Removes the element at the specified position in O(log n)
+	 * @param index the index of the element to be removed
+	 * @return the element previously at the specified position
+	 * @throws IndexOutOfBoundsException if index &lt; 0 or index &gt;= size()
+	 */
+	public E removeAt(int index) {
+		checkElementIndex(index);
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Node<E>[] update = new Node[level];
+		Node<E> p = nodeAt(index + 1, update);
+		E value = p.value;
+		removeNode(p, update);
+		return value;
 	}
 	/**
-	 * Returns the number of elements in this list
-	 * @return the number of elements in this list
+	 * Returns the element at the specified position in O(log n)
+	 * @param index index of the element to return
+	 * @return the element at the specified position
+	 * @throws IndexOutOfBoundsException if index &lt; 0 or index &gt;= size()
 	 */
-	public int size() {
-		return size;
+	public E get(int index) {
+		checkElementIndex(index);
+		return nodeAt(index + 1, null).value;
 	}
-	private void insertAt(Node<E> p, Node<E> newNode) {
-		newNode.next = p.next;
-		newNode.prev = p;
-		p.next.prev = newNode;
-		p.next = newNode;
+	/**
+	 * Returns the index of the specified element in O(log n), or -1 if this list does not contain it
+	 * @param e element to search for
+	 * @return the index of e, or -1
+	 */
+	public int indexOf(E e) {
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Node<E>[] update = new Node[level];
+		int[] rank = new int[level];
+		Node<E> p = findPredecessors(e, update, rank);
+		return p != null && cmp(p.value, e) == 0 ? rank[0] : -1;
 	}
-	static class Node<E> {
-		E value;
-		Node<E> next;
-		Node<E> prev;
-		Node<E> down;
-		Node() {
-			
-		}
-		Node(E value) {
-			this.value = value;
-			this.next = this.prev = this.down = null;
-		}
-		@Override
-		public String toString() {
-			return value.toString();
+	/**
+	 * Returns the last node whose value is less than e (or equal to e if inclusive), or the head.
+	 */
+	private Node<E> predecessor(E e, boolean inclusive) {
+		if (e == null)
+			throw new NullPointerException();
+		Node<E> p = head;
+		for (int i = level - 1; i >= 0; --i) {
+			Node<E> q;
+			while ((q = p.next[i]) != null) {
+				int c = cmp(q.value, e);
+				if (c < 0 || (c == 0 && inclusive))
+					p = q;
+				else
+					break;
+			}
 		}
+		return p;
 	}
-	private final static class  HeadNode<E> extends Node<E> {
-		@Override
-		public String toString() {
-			return "HEAD";
+	/**
+	 * Returns the number of elements less than e.
+	 */
+	private int countLess(E e) {
+		if (e == null)
+			throw new NullPointerException();
+		Node<E> p = head;
+		int r = 0;
+		for (int i = level - 1; i >= 0; --i) {
+			Node<E> q;
+			while ((q = p.next[i]) != null && cmp(q.value, e) < 0) {
+				r += p.span[i];
+				p = q;
+			}
 		}
+		return r;
 	}
-	private final static class EndNode<E> extends Node<E> {
-		@Override
-		public String toString() {
-			return "END";
-		}
+	private E valueOf(Node<E> p) {
+		return p == null || p == head ? null : p.value;
 	}
-	static class LinkedList<E> {
-		private Node<E> header;
-		private Node<E> end;
-		public LinkedList() {
-			header = new HeadNode<>();
-			end = new EndNode<>();
-			header.next = end;
-		}
-		public LinkedList(LinkedList<E> down) {
-			this();
-			this.header.down = down.getHeader();
-			this.end.down = down.getEnd();
+	/**
+	 * Returns the least element greater than or equal to e, or null if there is no such element
+	 */
+	public E ceiling(E e) {
+		return valueOf(predecessor(e, false).next[0]);
+	}
+	/**
+	 * Returns the least element strictly greater than e, or null if there is no such element
+	 */
+	public E higher(E e) {
+		return valueOf(predecessor(e, true).next[0]);
+	}
+	/**
+	 * Returns the greatest element less than or equal to e, or null if there is no such element
+	 */
+	public E floor(E e) {
+		return valueOf(predecessor(e, true));
+	}
+	/**
+	 * Returns the greatest element strictly less than e, or null if there is no such element
+	 */
+	public E lower(E e) {
+		return valueOf(predecessor(e, false));
+	}
+	/**
+	 * Returns the first (lowest) element
+	 * @throws NoSuchElementException if this list is empty
+	 */
+	public E first() {
+		if (size == 0)
+			throw new NoSuchElementException();
+		return head.next[0].value;
+	}
+	/**
+	 * Returns the last (highest) element
+	 * @throws NoSuchElementException if this list is empty
+	 */
+	public E last() {
+		if (size == 0)
+			throw new NoSuchElementException();
+		return tail.value;
+	}
+	/**
+	 * Returns a view of the elements ranging from from, inclusive, to to, exclusive.
+	 * The view is backed by this list and is not copied; it seeks its first element in O(log n)
+	 * and then walks the bottom level, so scanning k elements costs O(log n + k).
+	 * @throws IllegalArgumentException if from is greater than to
+	 */
+	public SubList subList(E from, E to) {
+		if (from == null || to == null)
+			throw new NullPointerException();
+		if (cmp(from, to) > 0)
+			throw new IllegalArgumentException("from > to");
+		return new SubList(from, to);
+	}
+	/**
+	 * Returns a view of the elements greater than or equal to from.
+	 * @see #subList(Object, Object)
+	 */
+	public SubList tailList(E from) {
+		if (from == null)
+			throw new NullPointerException();
+		return new SubList(from, null);
+	}
+	/**
+	 * A range view of this list, from is inclusive and to is exclusive; a null bound means unbounded.
+	 */
+	public final class SubList implements Iterable<E> {
+		private final E from;
+		private final E to;
+		SubList(E from, E to) {
+			this.from = from;
+			this.to = to;
+		}
+		private boolean inRange(E e) {
+			return (from == null || cmp(e, from) >= 0) && (to == null || cmp(e, to) < 0);
+		}
+		private boolean beforeEnd(Node<E> p) {
+			return p != null && (to == null || cmp(p.value, to) < 0);
+		}
+		private Node<E> firstNode() {
+			Node<E> p = from == null ? head.next[0] : predecessor(from, false).next[0];
+			return beforeEnd(p) ? p : null;
+		}
+		public boolean contains(E e) {
+			return inRange(e) && SkipList.this.contains(e);
+		}
+		/**
+		 * Inserts e into the backing list
+		 * @throws IllegalArgumentException if e is out of the range of this view
+		 */
+		public boolean add(E e) {
+			if (!inRange(e))
+				throw new IllegalArgumentException("element out of range");
+			return SkipList.this.add(e);
+		}
+		public boolean remove(E e) {
+			return inRange(e) && SkipList.this.remove(e);
+		}
+		/**
+		 * Returns the number of elements in this view in O(log n)
+		 */
+		public int size() {
+			int hi = to == null ? size : countLess(to);
+			int lo = from == null ? 0 : countLess(from);
+			return Math.max(0, hi - lo);
+		}
+		public boolean isEmpty() {
+			return firstNode() == null;
+		}
+		/**
+		 * @throws NoSuchElementException if this view is empty
+		 */
+		public E first() {
+			Node<E> p = firstNode();
+			if (p == null)
+				throw new NoSuchElementException();
+			return p.value;
+		}
+		/**
+		 * @throws NoSuchElementException if this view is empty
+		 */
+		public E last() {
+			Node<E> p = to == null ? tail : predecessor(to, false);
+			if (p == null || p == head || (from != null && cmp(p.value, from) < 0))
+				throw new NoSuchElementException();
+			return p.value;
 		}
-		public void insert(Node<E> position, Node<E> toInserted, Node<E> down) {
-			toInserted.next = position.next;
-			position.next.prev = toInserted;
-			toInserted.prev = position;
-			position.next = toInserted;
-			toInserted.down = down;
+		@Override
+		public Iterator<E> iterator() {
+			return new Iterator<E>() {
+				private Node<E> next = firstNode();
+				private Node<E> lastRet;
+				private int expectedModCount = modCount;
+				@Override
+				public boolean hasNext() {
+					return next != null;
+				}
+				@Override
+				public E next() {
+					if (modCount != expectedModCount)
+						throw new ConcurrentModificationException();
+					if (next == null)
+						throw new NoSuchElementException();
+					lastRet = next;
+					next = beforeEnd(next.next[0]) ? next.next[0] : null;
+					return lastRet.value;
+				}
+				@Override
+				public void remove() {
+					if (lastRet == null)
+						throw new IllegalStateException();
+					if (modCount != expectedModCount)
+						throw new ConcurrentModificationException();
+					SkipList.this.remove(lastRet.value);
+					lastRet = null;
+					expectedModCount = modCount;
+				}
+			};
 		}
-		public void insert(Node<E> position, Node<E> toInserted) {
-			insert(position, toInserted, null);
+	}
+	/**
+	 * Returns a new finger (search cursor) over this list.
+	 */
+	public Finger finger() {
+		return new Finger();
+	}
+	/**
+	 * Inserts the elements of an ascending (or mostly ascending) iterator through one finger,
+	 * so each insertion costs O(log d) where d is the distance from the previous one.
+	 * Elements out of order are still inserted correctly, at the cost of a full search.
+	 * @param it the elements to add
+	 * @return the number of elements actually added
+	 */
+	public int addAllSorted(Iterator<? extends E> it) {
+		Finger finger = new Finger();
+		int added = 0;
+		while (it.hasNext()) {
+			if (finger.add(it.next()))
+				added++;
+		}
+		return added;
+	}
+	/**
+	 * A cursor that remembers the update path (the predecessor on every level) of its last operation.
+	 * A following operation on a key not less than the previous one climbs from the bottom of that path
+	 * only as high as needed and then descends, instead of starting at the top of the head tower,
+	 * which costs O(log d) for a key d positions away. The path is dropped when the list is modified
+	 * other than through this finger.
+	 */
+	public final class Finger {
+		private Node<E>[] update;
+		private int[] rank;
+		private E key;
+		private int expectedModCount;
+		private boolean valid;
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Finger() {
+			update = new Node[head.next.length];
+			rank = new int[head.next.length];
+		}
+		private void ensureCapacity(int n) {
+			if (update.length < n) {
+				int capacity = Math.max(n, update.length * 2);
+				update = Arrays.copyOf(update, capacity);
+				rank = Arrays.copyOf(rank, capacity);
+			}
 		}
-		public Node<E> getHeader() {
-			return header;
+		/**
+		 * Moves the finger to e and returns the first node not less than e, or null.
+		 */
+		private Node<E> seek(E e) {
+			if (e == null)
+				throw new NullPointerException();
+			ensureCapacity(level);
+			Node<E> result;
+			if (!valid || modCount != expectedModCount || cmp(e, key) < 0) {
+				result = findPredecessors(e, update, rank);
+			} else {
+				// climb while the next node on this level is still before e
+				int top = 0;
+				while (top < level - 1 && before(update[top].next[top], e))
+					top++;
+				Node<E> p = update[top];
+				int r = rank[top];
+				for (int i = top; i >= 0; --i) {
+					Node<E> q;
+					while ((q = p.next[i]) != null && cmp(q.value, e) < 0) {
+						r += p.span[i];
+						p = q;
+					}
+					update[i] = p;
+					rank[i] = r;
+				}
+				result = p.next[0];
+			}
+			key = e;
+			valid = true;
+			expectedModCount = modCount;
+			return result;
+		}
+		private boolean before(Node<E> p, E e) {
+			return p != null && cmp(p.value, e) < 0;
+		}
+		public boolean contains(E e) {
+			Node<E> p = seek(e);
+			return p != null && cmp(p.value, e) == 0;
+		}
+		/**
+		 * Returns the index of e, or -1 if this list does not contain it.
+		 */
+		public int indexOf(E e) {
+			Node<E> p = seek(e);
+			return p != null && cmp(p.value, e) == 0 ? rank[0] : -1;
+		}
+		public boolean add(E e) {
+			Node<E> p = seek(e);
+			if (p != null && cmp(p.value, e) == 0)
+				return false;
+			int newLevel = randomLevel();
+			ensureCapacity(newLevel);
+			insert(e, newLevel, update, rank);
+			expectedModCount = modCount;
+			return true;
+		}
+		public boolean remove(E e) {
+			Node<E> p = seek(e);
+			if (p == null || cmp(p.value, e) != 0)
+				return false;
+			removeNode(p, update);
+			expectedModCount = modCount;
+			return true;
 		}
-		public Node<E> getEnd() {
-			return end;
+	}
+	private void checkElementIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+	}
+	private void removeNode(Node<E> p, Node<E>[] update) {
+		checkNotFrozen();
+		levelHistogram[p.next.length - 1]--;
+		for (int i = 0; i < p.next.length; ++i) {
+			update[i].next[i] = p.next[i];
+			update[i].span[i] += p.span[i] - 1;
+		}
+		for (int i = p.next.length; i < level; ++i)
+			update[i].span[i]--;
+		if (p.next[0] != null)
+			p.next[0].prev = p.prev;
+		else
+			tail = p.prev;
+		while (level > 1 && head.next[level - 1] == null)
+			level--;
+		p.value = null;
+		p.prev = null;
+		Arrays.fill(p.next, null);
+		--size;
+		++modCount;
+	}
+	/**
+	 * Makes this list immutable: every later call that would change it throws
+	 * UnsupportedOperationException, so it can be read by several threads without locking.
+	 * Calls that find nothing to change (adding a present element, removing an absent one)
+	 * still return false.
+	 */
+	public void freeze() {
+		frozen = true;
+	}
+	public boolean isFrozen() {
+		return frozen;
+	}
+	private void checkNotFrozen() {
+		if (frozen)
+			throw new UnsupportedOperationException("SkipList is frozen");
+	}
+	/**
+	 * Returns the number of elements in this list
+	 * @return the number of elements in this list
+	 */
+	public int size() {
+		return size;
+	}
+	/**
+	 * Node of the list. Each element owns exactly one node whose next array holds its forward link
+	 * on every level it appears on; only the bottom level is doubly linked through prev.
+	 * span[i] is the number of bottom-level steps covered by next[i], where a null link
+	 * points at position size + 1.
+	 */
+	static final class Node<E> {
+		E value;
+		Node<E>[] next;
+		int[] span;
+		Node<E> prev;
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		Node(E value, int level) {
+			this.value = value;
+			this.next = new Node[level];
+			this.span = new int[level];
 		}
 		@Override
 		public String toString() {
-			Node<E> p = header;
-			StringBuilder sb = new StringBuilder();
-			while (true) {
-				if (isEnd(p)) {
-					sb.append(p);
-					break;
-				} else {
-					sb.append(p.toString() + "->");
-					p = p.next;
-				}
-			}
-			return sb.toString();
+			return value.toString();
 		}
 	}
 	void print() {
-		int i = list.size() - 1;
-		while (i >= 0) {
-			System.out.println(list.get(i--));
-		}
-	}
-	private Node<E> node(int index) {
-		if (index < (size >> 1)) {
-			Node<E> x = list.get(0).getHeader().next;
-			for (int i = 0; i < index; ++i)
-				x = x.next;
-			return x;
-		} else {
-			Node<E> x = list.get(0).getEnd().prev;
-			for (int i = size - 1; i > index; i--)
-				x = x.prev;
-			return x;
+		for (int i = level - 1; i >= 0; --i) {
+			StringBuilder sb = new StringBuilder("HEAD->");
+			for (Node<E> p = head.next[i]; p != null; p = p.next[i])
+				sb.append(p.toString() + "->");
+			sb.append("END");
+			System.out.println(sb);
 		}
 	}
 	private class ListItr implements ListIterator<E> {
@@ -291,7 +706,7 @@ public class SkipList<E> implements Iterable<E> {
 		private int nextIndex;
 		private int expectedModCount = modCount;
 		ListItr(int index) {
-			next = (index == size) ? null : node(index);
+			next = (index == size) ? null : nodeAt(index + 1, null);
 			nextIndex = index;
 		}
 		@Override
@@ -315,7 +730,7 @@ public class SkipList<E> implements Iterable<E> {
 			if (!hasNext())
 				throw new NoSuchElementException();
 			lastRet = next;
-			next = next.next;
+			next = next.next[0];
 			nextIndex++;
 			return lastRet.value;
 		}
@@ -330,7 +745,7 @@ public class SkipList<E> implements Iterable<E> {
 			checkForComodification();
 			if (!hasPrevious())
 				throw new NoSuchElementException();
-			lastRet = next = ( next == null) ? list.get(0).getEnd().prev : next.prev;
+			lastRet = next = (next == null) ? tail : next.prev;
 			nextIndex--;
 			return lastRet.value;
 		}
@@ -345,7 +760,7 @@ public class SkipList<E> implements Iterable<E> {
 			checkForComodification();
 			if (lastRet == null)
 				throw new IllegalStateException();
-			Node<E> lastNext = lastRet.next;
+			Node<E> lastNext = lastRet.next[0];
 			SkipList.this.remove(lastRet.value);
 			if (next == lastRet)
 				next = lastNext;
@@ -370,6 +785,20 @@ public class SkipList<E> implements Iterable<E> {
 	public Iterator<E> iterator() {
 		return new ListItr(0);
 	}
+	/**
+	 * Returns a list iterator starting at the specified position, positioned in O(log n).
+	 * add and set are not supported.
+	 * @param index index of the first element to be returned by next
+	 * @throws IndexOutOfBoundsException if index &lt; 0 or index &gt; size()
+	 */
+	public ListIterator<E> listIterator(int index) {
+		if (index < 0 || index > size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		return new ListItr(index);
+	}
+	public ListIterator<E> listIterator() {
+		return new ListItr(0);
+	}
 	public Iterator<E> reverseIterator() {
 		final ListItr itr = new ListItr(size());
 		return new Iterator<E>() {
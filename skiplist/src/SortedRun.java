@@ -0,0 +1,339 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * An immutable file of sorted records, written by {@link MemTable} when it flushes.
+ * <pre>
+ * block 0 .. block n-1   Deflater-compressed records
+ * index                  per block: first record (length-prefixed), offset, compressed length,
+ *                        uncompressed length, record count
+ * footer                 index offset (long), index length (int), record count (long), magic (int)
+ * </pre>
+ * The index is sparse (one record per block) and is loaded on open; a lookup binary searches it
+ * and decompresses a single block.
+ * @author fgp
+ * @param <E> the type of records
+ */
+public final class SortedRun<E> implements Iterable<E>, Closeable {
+	private static final int MAGIC = 0x534b5255; // "SKRU"
+	private static final int FOOTER_SIZE = 8 + 4 + 8 + 4;
+	public static final int DEFAULT_BLOCK_SIZE = 16 * 1024;
+	private final FileChannel channel;
+	private final RecordSerializer<E> serializer;
+	private final Comparator<E> comparator;
+	private final Object[] firstRecords;
+	private final long[] offsets;
+	private final int[] lengths;
+	private final int[] rawLengths;
+	private final int[] counts;
+	private final long size;
+	private SortedRun(FileChannel channel, RecordSerializer<E> serializer, Comparator<E> comparator) throws IOException {
+		this.channel = channel;
+		this.serializer = serializer;
+		this.comparator = comparator;
+		long fileSize = channel.size();
+		if (fileSize < FOOTER_SIZE)
+			throw new IOException("Not a sorted run: file too short");
+		ByteBuffer footer = readFully(fileSize - FOOTER_SIZE, FOOTER_SIZE);
+		long indexOffset = footer.getLong();
+		int indexLength = footer.getInt();
+		this.size = footer.getLong();
+		if (footer.getInt() != MAGIC)
+			throw new IOException("Not a sorted run: bad magic");
+		if (indexOffset < 0 || indexLength < 4 || indexOffset > fileSize - FOOTER_SIZE - indexLength)
+			throw new IOException("Corrupted index: offset " + indexOffset + ", length " + indexLength);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(readFully(indexOffset, indexLength).array()));
+		int blocks = in.readInt();
+		// each index entry takes at least 24 bytes: an empty first record, offset and three ints
+		if (blocks < 0 || blocks > (indexLength - 4) / 24)
+			throw new IOException("Corrupted index: " + blocks + " blocks");
+		firstRecords = new Object[blocks];
+		offsets = new long[blocks];
+		lengths = new int[blocks];
+		rawLengths = new int[blocks];
+		counts = new int[blocks];
+		for (int i = 0; i < blocks; ++i) {
+			int firstLength = in.readInt();
+			if (firstLength < 0 || firstLength > in.available())
+				throw new IOException("Corrupted index entry " + i);
+			byte[] first = new byte[firstLength];
+			in.readFully(first);
+			firstRecords[i] = serializer.read(new DataInputStream(new ByteArrayInputStream(first)));
+			offsets[i] = in.readLong();
+			lengths[i] = in.readInt();
+			rawLengths[i] = in.readInt();
+			counts[i] = in.readInt();
+			if (offsets[i] < 0 || lengths[i] < 0 || offsets[i] > indexOffset - lengths[i] || rawLengths[i] < 0 || counts[i] < 0)
+				throw new IOException("Corrupted index entry " + i);
+		}
+	}
+	/**
+	 * Opens a run file for reading
+	 * @param path the run file
+	 * @param serializer the serializer the run was written with
+	 * @param comparator the order of the records, null for natural ordering
+	 * @return the opened run
+	 * @throws IOException if the file cannot be read, is not a run file or its index is corrupted
+	 */
+	public static <E> SortedRun<E> open(Path path, RecordSerializer<E> serializer, Comparator<E> comparator) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			return new SortedRun<>(channel, serializer, comparator);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	/**
+	 * Writes records, which must be in ascending order, to a new run file. The file is written
+	 * under a temporary name and moved into place when complete, so a reader never sees a partial run.
+	 * An existing file at path is never replaced, and the temporary file is removed if writing fails.
+	 * @param path the run file to create
+	 * @param records the records in ascending order
+	 * @param serializer converts records to bytes
+	 * @param blockSize the uncompressed size at which a block is closed
+	 * @return the number of records written
+	 * @throws IOException if writing fails, or path already exists
+	 */
+	public static <E> long write(Path path, Iterable<E> records, RecordSerializer<E> serializer, int blockSize) throws IOException {
+		if (blockSize <= 0)
+			throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		ByteArrayOutputStream block = new ByteArrayOutputStream(blockSize + blockSize / 4);
+		DataOutputStream blockOut = new DataOutputStream(block);
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		ByteArrayOutputStream index = new ByteArrayOutputStream();
+		DataOutputStream indexOut = new DataOutputStream(index);
+		Deflater deflater = new Deflater();
+		long offset = 0;
+		long count = 0;
+		int blocks = 0;
+		int inBlock = 0;
+		try {
+			try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.WRITE)) {
+				for (E e : records) {
+					if (inBlock == 0) {
+						first.reset();
+						serializer.write(e, new DataOutputStream(first));
+					}
+					serializer.write(e, blockOut);
+					inBlock++;
+					count++;
+					if (block.size() >= blockSize) {
+						offset += writeBlock(channel, deflater, block, first, inBlock, offset, indexOut);
+						blocks++;
+						inBlock = 0;
+					}
+				}
+				if (inBlock > 0) {
+					offset += writeBlock(channel, deflater, block, first, inBlock, offset, indexOut);
+					blocks++;
+				}
+				ByteBuffer indexBuffer = ByteBuffer.allocate(4 + index.size());
+				indexBuffer.putInt(blocks).put(index.toByteArray()).flip();
+				int indexLength = indexBuffer.remaining();
+				writeFully(channel, indexBuffer);
+				ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+				footer.putLong(offset).putInt(indexLength).putLong(count).putInt(MAGIC).flip();
+				writeFully(channel, footer);
+				channel.force(true);
+			}
+			publish(tmp, path);
+		} catch (IOException | RuntimeException e) {
+			try {
+				Files.deleteIfExists(tmp);
+			} catch (IOException suppressed) {
+				e.addSuppressed(suppressed);
+			}
+			throw e;
+		} finally {
+			deflater.end();
+		}
+		return count;
+	}
+	/**
+	 * Moves the finished tmp file to path without ever replacing an existing file.
+	 * A hard link is created atomically and fails if path exists; where links are not
+	 * supported (the file system refuses them with UnsupportedOperationException or a
+	 * FileSystemException) a plain move is used, which also refuses to overwrite.
+	 * @throws FileAlreadyExistsException if path already exists
+	 */
+	private static void publish(Path tmp, Path path) throws IOException {
+		try {
+			Files.createLink(path, tmp);
+		} catch (FileAlreadyExistsException e) {
+			throw e;
+		} catch (UnsupportedOperationException | FileSystemException e) {
+			try {
+				Files.move(tmp, path);
+			} catch (IOException moveFailure) {
+				moveFailure.addSuppressed(e);
+				throw moveFailure;
+			}
+			return;
+		}
+		Files.delete(tmp);
+	}
+	/**
+	 * Compresses and writes the current block and appends its index entry.
+	 * @return the number of bytes written
+	 */
+	private static int writeBlock(FileChannel channel, Deflater deflater, ByteArrayOutputStream block,
+			ByteArrayOutputStream first, int count, long offset, DataOutputStream indexOut) throws IOException {
+		byte[] raw = block.toByteArray();
+		deflater.reset();
+		deflater.setInput(raw);
+		deflater.finish();
+		ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2 + 64);
+		byte[] buf = new byte[8192];
+		while (!deflater.finished()) {
+			int n = deflater.deflate(buf);
+			compressed.write(buf, 0, n);
+		}
+		writeFully(channel, ByteBuffer.wrap(compressed.toByteArray()));
+		indexOut.writeInt(first.size());
+		first.writeTo(indexOut);
+		indexOut.writeLong(offset);
+		indexOut.writeInt(compressed.size());
+		indexOut.writeInt(raw.length);
+		indexOut.writeInt(count);
+		block.reset();
+		return compressed.size();
+	}
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+	}
+	private ByteBuffer readFully(long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0)
+				throw new IOException("Unexpected end of run file");
+		}
+		buffer.flip();
+		return buffer;
+	}
+	private DataInputStream readBlock(int i) throws IOException {
+		byte[] compressed = readFully(offsets[i], lengths[i]).array();
+		byte[] raw = new byte[rawLengths[i]];
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(compressed);
+			int n = 0;
+			while (n < raw.length && !inflater.finished()) {
+				int k = inflater.inflate(raw, n, raw.length - n);
+				// a truncated or damaged block leaves the inflater waiting for input forever
+				if (k == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+					throw new IOException("Corrupted block " + i);
+				n += k;
+			}
+			if (n != raw.length)
+				throw new IOException("Corrupted block " + i);
+		} catch (DataFormatException e) {
+			throw new IOException("Corrupted block " + i, e);
+		} finally {
+			inflater.end();
+		}
+		return new DataInputStream(new ByteArrayInputStream(raw));
+	}
+	private int cmp(E e1, E e2) {
+		if (comparator != null)
+			return comparator.compare(e1, e2);
+		@SuppressWarnings("unchecked")
+		Comparable<? super E> c = (Comparable<? super E>)e1;
+		return c.compareTo(e2);
+	}
+	/**
+	 * Returns the number of records in this run
+	 */
+	public long size() {
+		return size;
+	}
+	/**
+	 * Returns true if this run contains e, reading at most one block
+	 * @throws IOException if the block cannot be read
+	 */
+	public boolean contains(E e) throws IOException {
+		// last block whose first record is not greater than e
+		int low = 0, high = firstRecords.length - 1, block = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			@SuppressWarnings("unchecked")
+			E first = (E)firstRecords[mid];
+			if (cmp(first, e) <= 0) {
+				block = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		if (block < 0)
+			return false;
+		DataInputStream in = readBlock(block);
+		for (int i = 0; i < counts[block]; ++i) {
+			int c = cmp(serializer.read(in), e);
+			if (c == 0)
+				return true;
+			if (c > 0)
+				return false;
+		}
+		return false;
+	}
+	/**
+	 * Returns an iterator over the records in ascending order, decompressing one block at a time.
+	 * An IOException while reading is rethrown as UncheckedIOException.
+	 */
+	@Override
+	public Iterator<E> iterator() {
+		return new Iterator<E>() {
+			private int block = -1;
+			private int remaining;
+			private DataInputStream in;
+			@Override
+			public boolean hasNext() {
+				while (remaining == 0 && block + 1 < counts.length) {
+					block++;
+					remaining = counts[block];
+					in = null;
+				}
+				return remaining > 0;
+			}
+			@Override
+			public E next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				try {
+					if (in == null)
+						in = readBlock(block);
+					remaining--;
+					return serializer.read(in);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		};
+	}
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}